@@ -0,0 +1,168 @@
+package org.traktion0.safenet.filesystem;
+
+import org.traktion0.safenet.client.commands.SafenetFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileLock;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Asynchronous channel over a {@link SafenetFileChannel}.
+ *
+ * Every read and write runs on the channel's executor, so callers are never blocked on the network.
+ * Reads may run concurrently; writes, which are held by the underlying channel until force or close,
+ * run one at a time.
+ */
+public class SafenetAsynchronousFileChannel extends AsynchronousFileChannel {
+    private final SafenetFileChannel fileChannel;
+    private final ExecutorService executorService;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public SafenetAsynchronousFileChannel(SafenetFactory safenetFactory, Path path, Set<? extends OpenOption> set,
+                                          ExecutorService executorService, FileAttribute<?>... fileAttributes) {
+        this.fileChannel = new SafenetFileChannel(safenetFactory, path, set, fileAttributes);
+        this.executorService = executorService;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            return fileChannel.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public AsynchronousFileChannel truncate(long size) throws IOException {
+        throw new UnsupportedOperationException("Truncate is not supported.");
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        ensureOpen();
+        lock.writeLock().lock();
+        try {
+            fileChannel.force(metaData);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public <A> void lock(long position, long size, boolean shared, A attachment, CompletionHandler<FileLock, ? super A> handler) {
+        throw new UnsupportedOperationException("File locking is not supported.");
+    }
+
+    @Override
+    public Future<FileLock> lock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("File locking is not supported.");
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        throw new UnsupportedOperationException("File locking is not supported.");
+    }
+
+    @Override
+    public <A> void read(ByteBuffer dst, long position, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        checkRead(dst, position);
+        submit(() -> doRead(dst, position), attachment, handler);
+    }
+
+    @Override
+    public Future<Integer> read(ByteBuffer dst, long position) {
+        checkRead(dst, position);
+        return executorService.submit(() -> doRead(dst, position));
+    }
+
+    @Override
+    public <A> void write(ByteBuffer src, long position, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        checkWrite(position);
+        submit(() -> doWrite(src, position), attachment, handler);
+    }
+
+    @Override
+    public Future<Integer> write(ByteBuffer src, long position) {
+        checkWrite(position);
+        return executorService.submit(() -> doWrite(src, position));
+    }
+
+    @Override
+    public boolean isOpen() {
+        return fileChannel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Waits for writes in progress, then uploads anything still held
+        lock.writeLock().lock();
+        try {
+            fileChannel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int doRead(ByteBuffer dst, long position) throws IOException {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            return fileChannel.read(dst, position);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int doWrite(ByteBuffer src, long position) throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            return fileChannel.write(src, position);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private <V, A> void submit(Callable<V> task, A attachment, CompletionHandler<V, ? super A> handler) {
+        if (handler == null) throw new NullPointerException("CompletionHandler is null.");
+
+        executorService.execute(() -> {
+            V result;
+            try {
+                result = task.call();
+            } catch (Throwable t) {
+                handler.failed(t, attachment);
+                return;
+            }
+            handler.completed(result, attachment);
+        });
+    }
+
+    private static void checkRead(ByteBuffer dst, long position) {
+        if (position < 0) throw new IllegalArgumentException("Negative position.");
+        if (dst.isReadOnly()) throw new IllegalArgumentException("Read-only buffer.");
+    }
+
+    private static void checkWrite(long position) {
+        if (position < 0) throw new IllegalArgumentException("Negative position.");
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!fileChannel.isOpen()) throw new ClosedChannelException();
+    }
+}
@@ -16,6 +16,7 @@ public class SafenetBasicFileAttributeView implements BasicFileAttributeView {
 
     private SafenetFile safenetFile;
     private SafenetDirectory safenetDirectory;
+    private SafenetBasicFileAttributes attributes;
 
     public SafenetBasicFileAttributeView(SafenetFile safenetFile) {
         this.safenetFile = safenetFile;
@@ -25,6 +26,10 @@ public class SafenetBasicFileAttributeView implements BasicFileAttributeView {
         this.safenetDirectory = safenetDirectory;
     }
 
+    public SafenetBasicFileAttributeView(SafenetBasicFileAttributes attributes) {
+        this.attributes = attributes;
+    }
+
     @Override
     public String name() {
         return "basic";
@@ -36,6 +41,8 @@ public class SafenetBasicFileAttributeView implements BasicFileAttributeView {
             return new SafenetBasicFileAttributes(safenetFile);
         } else if (safenetDirectory != null) {
             return new SafenetBasicFileAttributes(safenetDirectory);
+        } else if (attributes != null) {
+            return attributes;
         }
         return null;
     }
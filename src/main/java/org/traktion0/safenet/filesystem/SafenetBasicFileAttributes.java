@@ -1,5 +1,6 @@
 package org.traktion0.safenet.filesystem;
 
+import org.traktion0.safenet.client.beans.Info;
 import org.traktion0.safenet.client.beans.SafenetDirectory;
 import org.traktion0.safenet.client.beans.SafenetFile;
 
@@ -43,6 +44,35 @@ public class SafenetBasicFileAttributes implements BasicFileAttributes {
         isOther = false;
     }
 
+    /**
+     * Creates attributes for an entry of a directory listing. Listings do not carry file sizes, so
+     * size() of a regular file is only meaningful when overridden.
+     */
+    SafenetBasicFileAttributes(Info info, boolean isDirectory) {
+        lastModifiedTime = FileTime.from(info.getModifiedOn(), TimeUnit.SECONDS);
+        lastAccessTime = lastModifiedTime;
+        creationTime = FileTime.from(info.getCreatedOn(), TimeUnit.SECONDS);
+        size = 0;
+        isRegularFile = !isDirectory;
+        this.isDirectory = isDirectory;
+        isSymbolicLink = false;
+        isOther = false;
+    }
+
+    /**
+     * Creates attributes restored from a metadata snapshot.
+     */
+    SafenetBasicFileAttributes(FileTime lastModifiedTime, FileTime creationTime, long size, boolean isDirectory) {
+        this.lastModifiedTime = lastModifiedTime;
+        lastAccessTime = lastModifiedTime;
+        this.creationTime = creationTime;
+        this.size = size;
+        isRegularFile = !isDirectory;
+        this.isDirectory = isDirectory;
+        isSymbolicLink = false;
+        isOther = false;
+    }
+
     @Override
     public FileTime lastModifiedTime() {
         return lastModifiedTime;
@@ -0,0 +1,80 @@
+package org.traktion0.safenet.filesystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for moving bytes between remote streams and NIO buffers without per-call garbage.
+ */
+final class SafenetBuffers {
+
+    /** Largest array length which the VM reliably allocates. */
+    static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final int SCRATCH_SIZE = 8192;
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[SCRATCH_SIZE]);
+
+    private SafenetBuffers() {
+    }
+
+    /**
+     * Reads from the stream until the buffer has no bytes remaining or the stream ends, advancing the
+     * buffer position by the number of bytes read. Heap buffers are filled in place; direct buffers
+     * are filled through a small per-thread scratch array.
+     *
+     * @return the number of bytes read, which is only less than remaining() at end of stream
+     */
+    static int readFully(InputStream inputStream, ByteBuffer byteBuffer) throws IOException {
+        int totalBytesRead = 0;
+        int bytesRead;
+
+        if (byteBuffer.hasArray()) {
+            byte[] array = byteBuffer.array();
+            while (byteBuffer.hasRemaining()
+                    && (bytesRead = inputStream.read(array, byteBuffer.arrayOffset() + byteBuffer.position(), byteBuffer.remaining())) != -1) {
+                byteBuffer.position(byteBuffer.position() + bytesRead);
+                totalBytesRead += bytesRead;
+            }
+        } else {
+            byte[] scratch = SCRATCH.get();
+            while (byteBuffer.hasRemaining()
+                    && (bytesRead = inputStream.read(scratch, 0, Math.min(scratch.length, byteBuffer.remaining()))) != -1) {
+                byteBuffer.put(scratch, 0, bytesRead);
+                totalBytesRead += bytesRead;
+            }
+        }
+
+        return totalBytesRead;
+    }
+
+    /**
+     * Gathers the remaining bytes of the buffers into one exactly sized array, without moving their
+     * positions. Direct and read-only buffers are copied; a single heap buffer whose remaining bytes
+     * are its whole backing array is returned without copying.
+     */
+    static byte[] toByteArray(ByteBuffer[] byteBuffers, int offset, int length) throws IOException {
+        long totalLength = 0;
+        for (int i=offset; i<(offset + length); i++) {
+            totalLength += byteBuffers[i].remaining();
+        }
+        if (totalLength > MAX_ARRAY_SIZE) throw new IOException("Content of " + totalLength + " bytes is too large for a single array.");
+
+        if (length == 1) {
+            ByteBuffer byteBuffer = byteBuffers[offset];
+            if (byteBuffer.hasArray() && byteBuffer.arrayOffset() == 0 && byteBuffer.position() == 0
+                    && byteBuffer.remaining() == byteBuffer.array().length) {
+                return byteBuffer.array();
+            }
+        }
+
+        byte[] content = new byte[(int) totalLength];
+        int contentPosition = 0;
+        for (int i=offset; i<(offset + length); i++) {
+            int remaining = byteBuffers[i].remaining();
+            byteBuffers[i].duplicate().get(content, contentPosition, remaining);
+            contentPosition += remaining;
+        }
+        return content;
+    }
+}
@@ -0,0 +1,130 @@
+package org.traktion0.safenet.filesystem;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * File system wide cache of fixed size file blocks, shared by every channel.
+ *
+ * Blocks are keyed by path, block index and the last modified time of the file, so a changed file
+ * never serves stale blocks. Content is held in direct buffers to keep large caches off the heap,
+ * and the least recently used blocks are evicted once the byte budget is exceeded.
+ *
+ * When a disk tier is given, every fetched block is also written to it, and blocks missing from
+ * memory are looked up there before the caller fetches them again.
+ */
+class SafenetChunkCache {
+
+    private final int blockSize;
+    private final long maxBytes;
+    private final SafenetDiskCache diskCache;
+    private final LinkedHashMap<Key, ByteBuffer> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long currentBytes;
+
+    SafenetChunkCache(int blockSize, long maxBytes) {
+        this(blockSize, maxBytes, null);
+    }
+
+    SafenetChunkCache(int blockSize, long maxBytes, SafenetDiskCache diskCache) {
+        this.blockSize = blockSize;
+        this.maxBytes = maxBytes;
+        this.diskCache = diskCache;
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns a read-only view of the cached block, or null if it is not cached. A block shorter than
+     * the block size is the last block of the file.
+     */
+    ByteBuffer get(String path, long lastModified, long blockIndex) {
+        synchronized (this) {
+            ByteBuffer block = blocks.get(new Key(path, lastModified, blockIndex));
+            if (block != null) return block.asReadOnlyBuffer();
+        }
+
+        if (diskCache == null) return null;
+        byte[] data = diskCache.get(path, lastModified, blockIndex);
+        return data != null ? putMemory(path, lastModified, blockIndex, data) : null;
+    }
+
+    /**
+     * Copies the block into the cache and returns a read-only view of it.
+     */
+    ByteBuffer put(String path, long lastModified, long blockIndex, byte[] data) {
+        if (diskCache != null) diskCache.put(path, lastModified, blockIndex, data);
+        return putMemory(path, lastModified, blockIndex, data);
+    }
+
+    void invalidate(String path) {
+        invalidateMemory(path);
+        if (diskCache != null) diskCache.invalidate(path);
+    }
+
+    private ByteBuffer putMemory(String path, long lastModified, long blockIndex, byte[] data) {
+        if (data.length > maxBytes) return ByteBuffer.wrap(data).asReadOnlyBuffer();
+
+        ByteBuffer block = ByteBuffer.allocateDirect(data.length);
+        block.put(data);
+        block.flip();
+
+        synchronized (this) {
+            ByteBuffer previous = blocks.put(new Key(path, lastModified, blockIndex), block);
+            if (previous != null) currentBytes -= previous.capacity();
+            currentBytes += block.capacity();
+            evict();
+        }
+        return block.asReadOnlyBuffer();
+    }
+
+    private synchronized void invalidateMemory(String path) {
+        Iterator<Map.Entry<Key, ByteBuffer>> iterator = blocks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, ByteBuffer> entry = iterator.next();
+            if (entry.getKey().path.equals(path)) {
+                currentBytes -= entry.getValue().capacity();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<ByteBuffer> iterator = blocks.values().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            currentBytes -= iterator.next().capacity();
+            iterator.remove();
+        }
+    }
+
+    private static class Key {
+        private final String path;
+        private final long lastModified;
+        private final long blockIndex;
+
+        private Key(String path, long lastModified, long blockIndex) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.blockIndex = blockIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return lastModified == key.lastModified && blockIndex == key.blockIndex && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + Long.hashCode(lastModified);
+            return 31 * result + Long.hashCode(blockIndex);
+        }
+    }
+}
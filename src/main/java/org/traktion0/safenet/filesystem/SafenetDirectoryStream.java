@@ -0,0 +1,116 @@
+package org.traktion0.safenet.filesystem;
+
+import org.traktion0.safenet.client.beans.Info;
+import org.traktion0.safenet.client.beans.SafenetDirectory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Directory stream over a fetched SAFE directory listing.
+ *
+ * Entries are turned into paths only as the iterator advances, sub directories first and then files,
+ * and entries rejected by the filter are skipped without being handed out. As required by
+ * DirectoryStream, only one iterator may be obtained, and closing the stream ends iteration and
+ * releases the listing.
+ */
+class SafenetDirectoryStream implements DirectoryStream<Path> {
+
+    private final FileSystem fileSystem;
+    private final String parentPrefix;
+    // Entries are built from the directory's own names where it is one of ours
+    private final SafenetPath directory;
+    private final DirectoryStream.Filter<? super Path> filter;
+
+    private List<Info> subDirectories;
+    private List<Info> files;
+    private boolean iteratorReturned;
+    private volatile boolean closed;
+
+    SafenetDirectoryStream(Path directory, SafenetDirectory safenetDirectory, DirectoryStream.Filter<? super Path> filter) {
+        this.fileSystem = directory.getFileSystem();
+        this.filter = filter;
+        this.subDirectories = safenetDirectory.getSubDirectories();
+        this.files = safenetDirectory.getFiles();
+
+        this.parentPrefix = getChildPrefix(directory);
+        this.directory = directory instanceof SafenetPath ? (SafenetPath) directory : null;
+    }
+
+    /**
+     * Returns the string which entry names are appended to, to form the paths of the directory entries.
+     */
+    static String getChildPrefix(Path directory) {
+        String separator = directory.getFileSystem().getSeparator();
+        String directoryString = directory.toString();
+        if (directoryString.isEmpty() || directoryString.endsWith(separator)) {
+            return directoryString;
+        }
+        return directoryString + separator;
+    }
+
+    @Override
+    public synchronized Iterator<Path> iterator() {
+        if (closed) throw new IllegalStateException("Directory stream is closed.");
+        if (iteratorReturned) throw new IllegalStateException("Directory stream iterator already obtained.");
+        iteratorReturned = true;
+
+        return new Iterator<Path>() {
+            private int subDirectoryPos = 0;
+            private int filePos = 0;
+            private Path nextPath;
+
+            @Override
+            public boolean hasNext() {
+                if (nextPath == null) nextPath = advance();
+                return nextPath != null;
+            }
+
+            @Override
+            public Path next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Path path = nextPath;
+                nextPath = null;
+                return path;
+            }
+
+            private Path advance() {
+                while (!closed) {
+                    Info info;
+                    if (subDirectories != null && subDirectoryPos < subDirectories.size()) {
+                        info = subDirectories.get(subDirectoryPos++);
+                    } else if (files != null && filePos < files.size()) {
+                        info = files.get(filePos++);
+                    } else {
+                        return null;
+                    }
+
+                    Path path = directory != null
+                            ? directory.resolveChild(info.getName())
+                            : new SafenetPath(fileSystem, parentPrefix + info.getName());
+                    try {
+                        if (filter == null || filter.accept(path)) return path;
+                    } catch (IOException e) {
+                        throw new DirectoryIteratorException(e);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        subDirectories = null;
+        files = null;
+    }
+}
@@ -0,0 +1,191 @@
+package org.traktion0.safenet.filesystem;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local disk tier of the chunk cache, which keeps fetched blocks across restarts.
+ *
+ * Each block is a file in the cache directory, named after the path, last modified time, block size
+ * and block index it holds. Blocks are written to a temporary file and moved into place, so a block
+ * file is always complete. The directory is indexed when the cache is opened, ordered by each file's
+ * last modified time, which is refreshed on every hit, and the least recently used blocks are deleted
+ * once the byte budget is exceeded. Failing to read or write a block only loses the cached copy.
+ */
+class SafenetDiskCache {
+
+    private static final String BLOCK_SUFFIX = ".block";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final int blockSize;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long currentBytes;
+
+    SafenetDiskCache(Path directory, int blockSize, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.blockSize = blockSize;
+        this.maxBytes = maxBytes;
+
+        Files.createDirectories(directory);
+
+        List<Path> blockFiles = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+            for (Path file : directoryStream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(BLOCK_SUFFIX)) {
+                    blockFiles.add(file);
+                } else if (name.endsWith(TEMP_SUFFIX)) {
+                    // Left behind by a write which never completed
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+        for (Path file : blockFiles) {
+            attributes.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+        }
+        blockFiles.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+
+        List<String> evicted;
+        synchronized (this) {
+            for (Path file : blockFiles) {
+                blocks.put(file.getFileName().toString(), attributes.get(file).size());
+                currentBytes += attributes.get(file).size();
+            }
+            evicted = evict();
+        }
+        delete(evicted);
+    }
+
+    /**
+     * Returns the content of the cached block, or null if it is not cached.
+     */
+    byte[] get(String path, long lastModified, long blockIndex) {
+        String name = getName(path, lastModified, blockIndex);
+        synchronized (this) {
+            if (blocks.get(name) == null) return null;
+        }
+
+        Path file = directory.resolve(name);
+        try {
+            byte[] data = Files.readAllBytes(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return data;
+        } catch (IOException e) {
+            remove(name);
+            return null;
+        }
+    }
+
+    void put(String path, long lastModified, long blockIndex, byte[] data) {
+        if (data.length > maxBytes) return;
+
+        String name = getName(path, lastModified, blockIndex);
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(directory, "block", TEMP_SUFFIX);
+            Files.write(tempFile, data);
+            Files.move(tempFile, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (tempFile != null) delete(tempFile);
+            return;
+        }
+
+        List<String> evicted;
+        synchronized (this) {
+            Long previous = blocks.put(name, (long) data.length);
+            if (previous != null) currentBytes -= previous;
+            currentBytes += data.length;
+            evicted = evict();
+        }
+        delete(evicted);
+    }
+
+    /**
+     * Deletes every cached block of the path, whatever its last modified time.
+     */
+    void invalidate(String path) {
+        String prefix = hash(path) + "-";
+        List<String> removed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> iterator = blocks.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    currentBytes -= entry.getValue();
+                    removed.add(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+        delete(removed);
+    }
+
+    private synchronized void remove(String name) {
+        Long size = blocks.remove(name);
+        if (size != null) currentBytes -= size;
+    }
+
+    private List<String> evict() {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> iterator = blocks.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            currentBytes -= entry.getValue();
+            evicted.add(entry.getKey());
+            iterator.remove();
+        }
+        return evicted;
+    }
+
+    private void delete(List<String> names) {
+        for (String name : names) {
+            delete(directory.resolve(name));
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Nothing indexes the file any more, so it is only wasted space
+        }
+    }
+
+    private String getName(String path, long lastModified, long blockIndex) {
+        return hash(path) + "-" + lastModified + "-" + blockSize + "-" + blockIndex + BLOCK_SUFFIX;
+    }
+
+    private static String hash(String path) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(path.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
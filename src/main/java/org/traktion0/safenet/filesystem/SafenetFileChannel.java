@@ -15,30 +15,61 @@ import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileAttribute;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by paul on 06/10/16.
  */
 public class SafenetFileChannel extends FileChannel {
+    private static final int TRANSFER_FROM_INITIAL_CAPACITY = 64 * 1024;
+
     private final SafenetFactory safenetFactory;
     private final Path path;
     private final Set<? extends OpenOption> set;
+    private final SafenetFileSystem fileSystem;
+    private final SafenetReadAhead readAhead;
+    private final SafenetChunkCache chunkCache;
+    private final boolean writeBehind;
 
     private long position;
+    private volatile long lastModified = -1;
+    private SafenetPageMap pageMap;
+    private volatile long baseSize;
+    private boolean pageMapDirty;
+    // Set once this channel has uploaded content, which later held writes overlay even when truncating
+    private boolean uploaded;
+    private Future<Void> pendingUpload;
 
     public SafenetFileChannel(SafenetFactory safenetFactory, Path path, Set<? extends OpenOption> set, FileAttribute<?>... fileAttributes) {
         this.safenetFactory = safenetFactory;
         this.path = path;
         this.set = set;
         this.position = 0;
+
+        this.fileSystem = (SafenetFileSystem) path.getFileSystem();
+        SafenetFileSystemConfig config = fileSystem.getConfig();
+        if (config.getReadAheadDepth() > 0) {
+            readAhead = new SafenetReadAhead(this, fileSystem.getExecutorService(),
+                    config.getReadAheadWindow(), config.getReadAheadDepth());
+        } else {
+            readAhead = null;
+        }
+        chunkCache = fileSystem.getChunkCache();
+        writeBehind = config.isWriteBehind();
     }
 
     @Override
     public int read(ByteBuffer byteBuffer) throws IOException {
-        int bytesRead = read(byteBuffer, position);
-        incrementPosition(bytesRead);
+        // Read-ahead windows come straight from the network, so they cannot see held writes
+        int bytesRead = readAhead != null && pageMap == null ? readAhead.read(byteBuffer, position) : read(byteBuffer, position);
+        if (bytesRead > 0) incrementPosition(bytesRead);
         return bytesRead;
     }
 
@@ -48,56 +79,291 @@ public class SafenetFileChannel extends FileChannel {
 
     @Override
     public long read(ByteBuffer[] byteBuffers, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > byteBuffers.length - length) throw new IndexOutOfBoundsException();
+
         long totalBytesRead = 0;
-        int bytesRead;
+        if (chunkCache != null || pageMap != null) {
+            // Cached blocks and held writes are already local, so there is nothing to coalesce
+            for (int i=offset; i<(offset + length); i++) {
+                // A buffer which is already full takes nothing, and must not end the read
+                if (!byteBuffers[i].hasRemaining()) continue;
+
+                int bytesRead = read(byteBuffers[i], position + totalBytesRead);
+                if (bytesRead < 0) break;
+                totalBytesRead += bytesRead;
+                if (byteBuffers[i].hasRemaining()) break;
+            }
+        } else {
+            totalBytesRead = readScattered(byteBuffers, offset, length);
+        }
+
+        if (totalBytesRead > 0) incrementPosition(totalBytesRead);
+        return totalBytesRead == 0 && hasRemaining(byteBuffers, offset, length) ? -1 : totalBytesRead;
+    }
 
+    /**
+     * Fetches the combined remaining() of the buffers as one range and streams it into them in order.
+     */
+    private long readScattered(ByteBuffer[] byteBuffers, int offset, int length) throws IOException {
+        long totalRemaining = 0;
         for (int i=offset; i<(offset + length); i++) {
-            bytesRead = read(byteBuffers[i]);
-            totalBytesRead += bytesRead;
-            byteBuffers[i].position(bytesRead);
-            incrementPosition(bytesRead);
+            totalRemaining += byteBuffers[i].remaining();
+        }
+        if (totalRemaining == 0) return 0;
+
+        String pathString = path.normalize().toString();
+
+        try {
+            SafenetFile safenetFile = safenetFactory.makeGetFileCommand(pathString, position, totalRemaining).execute();
+
+            long totalBytesRead = 0;
+            try (InputStream inputStream = safenetFile.getInputStream()) {
+                for (int i=offset; i<(offset + length); i++) {
+                    totalBytesRead += SafenetBuffers.readFully(inputStream, byteBuffers[i]);
+                    if (byteBuffers[i].hasRemaining()) break;
+                }
+            }
+            return totalBytesRead;
+        } catch(HystrixRuntimeException | SafenetBadRequestException e) {
+            throw new IOException("Get file '" + pathString + "' failed.", e);
         }
+    }
 
-        return totalBytesRead;
+    private static boolean hasRemaining(ByteBuffer[] byteBuffers, int offset, int length) {
+        for (int i=offset; i<(offset + length); i++) {
+            if (byteBuffers[i].hasRemaining()) return true;
+        }
+        return false;
     }
 
     @Override
     public int write(ByteBuffer byteBuffer) throws IOException {
-        int bufferLength = byteBuffer.capacity();
+        if (holdsWrites()) {
+            int bytesWritten = getPageMap().write(byteBuffer, position);
+            pageMapDirty = true;
+            incrementPosition(bytesWritten);
+            return bytesWritten;
+        }
+
+        return (int) write(new ByteBuffer[] { byteBuffer }, 0, 1);
+    }
+
+    /**
+     * Uploads the content as the whole file, dropping anything cached for the previous version.
+     *
+     * @return true if the launcher accepted the file
+     */
+    private boolean createFile(byte[] content) throws IOException {
         String pathString = path.normalize().toString();
 
         try {
-            String message = safenetFactory.makeCreateFileCommand(pathString, byteBuffer.array()).execute();
+            String message = safenetFactory.makeCreateFileCommand(pathString, content).execute();
 
             if (message.equals("ok")) {
-                incrementPosition(bufferLength);
-                byteBuffer.position(bufferLength);
-                return bufferLength;
+                if (readAhead != null) readAhead.reset();
+                if (chunkCache != null) chunkCache.invalidate(pathString);
+                if (fileSystem.getMetadataCache() != null) fileSystem.getMetadataCache().invalidate(pathString);
+                lastModified = -1;
+                uploaded = true;
+                return true;
             } else {
-                return 0;
+                return false;
             }
         } catch(HystrixRuntimeException | SafenetBadRequestException e) {
             throw new IOException("Create file '" + pathString + "' failed.", e);
         }
     }
 
+    /**
+     * Returns true if relative writes go into the held writes rather than being uploaded as the whole
+     * file. Only a write at the start of the file can replace it outright.
+     */
+    private boolean holdsWrites() {
+        return writeBehind || pageMap != null || position != 0;
+    }
+
+    /**
+     * Returns the page map holding writes until they are uploaded, creating it on first use. Held
+     * writes overlay the current file content, unless the channel was opened to replace the file
+     * and has not uploaded anything yet.
+     */
+    private SafenetPageMap getPageMap() throws IOException {
+        if (pageMap == null) {
+            if (!uploaded && (set.contains(StandardOpenOption.TRUNCATE_EXISTING) || set.contains(StandardOpenOption.CREATE_NEW))) {
+                baseSize = 0;
+            } else {
+                baseSize = getRemoteSize();
+            }
+
+            SafenetFileSystemConfig config = fileSystem.getConfig();
+            pageMap = new SafenetPageMap(config.getWritePageSize(), config.getSpoolMemoryThreshold(), baseSize, this::loadBasePage);
+        }
+        return pageMap;
+    }
+
+    private long getRemoteSize() throws IOException {
+        String pathString = path.normalize().toString();
+
+        try {
+            return fileSystem.getSingleFlight().getFileAttributes(pathString).getContentLength();
+        } catch(SafenetBadRequestException e) {
+            // The file does not exist yet, so there is no content to overlay
+            return 0;
+        } catch(HystrixRuntimeException e) {
+            throw new IOException("Get file attributes for '" + pathString + "' failed.", e);
+        }
+    }
+
+    private void loadBasePage(long pageIndex, ByteBuffer page) throws IOException {
+        readBaseFully(page, pageIndex * page.capacity());
+    }
+
+    /**
+     * Fills the buffer with the uploaded content at the position, padding with zeros past its end.
+     */
+    private void readBaseFully(ByteBuffer byteBuffer, long fromPosition) throws IOException {
+        int limit = byteBuffer.limit();
+        long position = fromPosition;
+        try {
+            if (position < baseSize) {
+                byteBuffer.limit((int) Math.min(limit, byteBuffer.position() + (baseSize - position)));
+                while (byteBuffer.hasRemaining()) {
+                    int bytesRead = readBase(byteBuffer, position);
+                    if (bytesRead <= 0) break;
+                    position += bytesRead;
+                }
+                byteBuffer.limit(limit);
+            }
+            while (byteBuffer.hasRemaining()) {
+                byteBuffer.put((byte) 0);
+            }
+        } finally {
+            byteBuffer.limit(limit);
+        }
+    }
+
+    /**
+     * Reads through the held writes, falling back to the uploaded content for pages not written.
+     * Each run of adjoining pages not written is read from the uploaded content as one range.
+     */
+    private int readOverlay(ByteBuffer byteBuffer, long fromPosition) throws IOException {
+        if (!byteBuffer.hasRemaining()) return 0;
+
+        long size = pageMap.size();
+        if (fromPosition >= size) return -1;
+
+        int pageSize = pageMap.getPageSize();
+        int limit = byteBuffer.limit();
+        long endPosition = Math.min(size, fromPosition + byteBuffer.remaining());
+        long position = fromPosition;
+        try {
+            while (position < endPosition) {
+                long pageIndex = position / pageSize;
+                boolean written = pageMap.contains(pageIndex);
+
+                long runEnd = Math.min((pageIndex + 1) * pageSize, endPosition);
+                while (!written && runEnd < endPosition && !pageMap.contains(runEnd / pageSize)) {
+                    runEnd = Math.min(runEnd + pageSize, endPosition);
+                }
+
+                byteBuffer.limit(byteBuffer.position() + (int) (runEnd - position));
+                if (!written || pageMap.read(byteBuffer, position) < 0) {
+                    readBaseFully(byteBuffer, position);
+                }
+                position = runEnd;
+                byteBuffer.limit(limit);
+            }
+        } finally {
+            byteBuffer.limit(limit);
+        }
+        return (int) (position - fromPosition);
+    }
+
+    /**
+     * Uploads the held writes, overlaid on the uploaded content, if any have not been uploaded yet.
+     * The pages are kept afterwards, as every upload has to carry the whole file.
+     *
+     * @param wait whether to wait for the upload, rather than leave it running in the background
+     */
+    private void flushPageMap(boolean wait) throws IOException {
+        awaitUpload();
+        if (pageMap == null || !pageMapDirty) return;
+
+        // The create file call takes the whole content as one array, so it cannot be larger than an array
+        long size = pageMap.size();
+        if (size > SafenetBuffers.MAX_ARRAY_SIZE) {
+            throw new IOException("File content of " + size + " bytes is larger than the " + SafenetBuffers.MAX_ARRAY_SIZE + " bytes a single upload can carry.");
+        }
+
+        byte[] content = new byte[(int) size];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(content);
+        while (byteBuffer.hasRemaining()) {
+            if (readOverlay(byteBuffer, byteBuffer.position()) <= 0) break;
+        }
+
+        pageMapDirty = false;
+        if (wait) {
+            try {
+                uploadContent(content);
+            } catch (IOException | RuntimeException e) {
+                pageMapDirty = true;
+                throw e;
+            }
+        } else {
+            pendingUpload = fileSystem.getExecutorService().submit(() -> {
+                uploadContent(content);
+                return null;
+            });
+        }
+    }
+
+    private void uploadContent(byte[] content) throws IOException {
+        if (!createFile(content)) {
+            throw new IOException("Create file '" + path.normalize().toString() + "' was not accepted.");
+        }
+        baseSize = content.length;
+    }
+
+    private void awaitUpload() throws IOException {
+        Future<Void> upload = pendingUpload;
+        if (upload == null) return;
+
+        pendingUpload = null;
+        try {
+            SafenetFutures.get(upload);
+        } catch (IOException | RuntimeException e) {
+            // Leave the content to be uploaded again by the next force or close
+            pageMapDirty = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Uploads the remaining bytes of the buffers, in order, as the file content. Each buffer is copied
+     * once, straight into the array handed to the create file call, and may be a heap, direct or
+     * read-only buffer. With WriteBehind set, once positional writes have been made, or when the
+     * position is not at the start of the file, the buffers are held until force or close instead.
+     */
     @Override
     public long write(ByteBuffer[] byteBuffers, int offset, int length) throws IOException {
-        // PG:ASSERT: Combined byte buffers must be less than a the maximum ByteBuffer size (2GB)
+        if (offset < 0 || length < 0 || offset > byteBuffers.length - length) throw new IndexOutOfBoundsException();
 
-        int totalBufferSize = 0;
-        for (int i=offset; i<(offset + length); i++) {
-            totalBufferSize += byteBuffers[i].array().length;
+        if (holdsWrites()) {
+            long totalBytesWritten = 0;
+            for (int i=offset; i<(offset + length); i++) {
+                totalBytesWritten += write(byteBuffers[i]);
+            }
+            return totalBytesWritten;
         }
 
-        // PG: On totalBufferSize overflow, this will throw IllegalArgumentException or IndexOutOfBoundsException on put
-        //     As SafenetCreateFile can only accept a single write, this needs a better approach.
-        ByteBuffer combinedByteBuffer = ByteBuffer.allocate(totalBufferSize);
+        byte[] content = SafenetBuffers.toByteArray(byteBuffers, offset, length);
+        if (!createFile(content)) return 0;
+
         for (int i=offset; i<(offset + length); i++) {
-            combinedByteBuffer.put(byteBuffers[i]);
+            byteBuffers[i].position(byteBuffers[i].limit());
         }
-
-        return write(combinedByteBuffer);
+        incrementPosition(content.length);
+        return content.length;
     }
 
     @Override
@@ -106,16 +372,20 @@ public class SafenetFileChannel extends FileChannel {
     }
 
     @Override
-    public FileChannel position(long l) throws IOException {
-        return null;
+    public FileChannel position(long newPosition) throws IOException {
+        if (newPosition < 0) throw new IllegalArgumentException("Negative position.");
+        position = newPosition;
+        return this;
     }
 
     @Override
     public long size() throws IOException {
+        if (pageMap != null) return pageMap.size();
+
         String pathString = path.normalize().toString();
 
         try {
-            SafenetFile safenetFile = safenetFactory.makeGetFileAttributesCommand(pathString).execute();
+            SafenetFile safenetFile = fileSystem.getSingleFlight().getFileAttributes(pathString);
             return safenetFile.getContentLength();
         } catch(HystrixRuntimeException | SafenetBadRequestException e) {
             throw new IOException("Get file attributes for '" + pathString + "' failed.", e);
@@ -127,47 +397,300 @@ public class SafenetFileChannel extends FileChannel {
         return null;
     }
 
+    /**
+     * Uploads any held writes. With AsyncUpload set the upload is only started, and close() waits for
+     * it to complete.
+     */
     @Override
     public void force(boolean b) throws IOException {
-
+        if (pageMap != null) flushPageMap(!fileSystem.getConfig().isAsyncUpload());
     }
 
+    /**
+     * Streams the range to the target in TransferChunkSize pieces, fetching the next piece in the
+     * background while the current one is written. At most two pieces are held at any time.
+     *
+     * When the target is a FileChannel and ParallelDownloadThreads is set, the range is instead split
+     * into ParallelDownloadRangeSize pieces which are fetched concurrently and written into place.
+     */
     @Override
-    public long transferTo(long l, long l1, WritableByteChannel writableByteChannel) throws IOException {
-        return 0;
+    public long transferTo(long fromPosition, long count, WritableByteChannel writableByteChannel) throws IOException {
+        if (fromPosition < 0 || count < 0) throw new IllegalArgumentException("Negative position or count.");
+        if (count == 0) return 0;
+
+        if (writableByteChannel instanceof FileChannel && fileSystem.getConfig().getParallelDownloadThreads() > 0) {
+            return transferToParallel(fromPosition, count, (FileChannel) writableByteChannel);
+        }
+
+        int chunkSize = (int) Math.min(fileSystem.getConfig().getTransferChunkSize(), count);
+        ByteBuffer current = ByteBuffer.allocate(chunkSize);
+        ByteBuffer next = ByteBuffer.allocate(chunkSize);
+
+        int requestedLength = chunkSize;
+        long requested = requestedLength;
+        Future<Integer> pending = fetchChunk(current, fromPosition, requestedLength);
+
+        long transferred = 0;
+        try {
+            while (pending != null) {
+                int bytesRead = SafenetFutures.get(pending);
+                pending = null;
+                if (bytesRead <= 0) break;
+
+                if (bytesRead == requestedLength && requested < count) {
+                    requestedLength = (int) Math.min(chunkSize, count - requested);
+                    pending = fetchChunk(next, fromPosition + requested, requestedLength);
+                    requested += requestedLength;
+                }
+
+                while (current.hasRemaining()) {
+                    int bytesWritten = writableByteChannel.write(current);
+                    if (bytesWritten == 0) break;
+                    transferred += bytesWritten;
+                }
+                // A non-blocking target that stops accepting bytes ends the transfer early
+                if (current.hasRemaining()) break;
+
+                ByteBuffer swap = current;
+                current = next;
+                next = swap;
+            }
+        } finally {
+            if (pending != null) pending.cancel(true);
+        }
+
+        return transferred;
+    }
+
+    private long transferToParallel(long fromPosition, long count, FileChannel fileChannel) throws IOException {
+        long endPosition = Math.min(size(), fromPosition + Math.min(count, Long.MAX_VALUE - fromPosition));
+        if (endPosition <= fromPosition) return 0;
+
+        SafenetFileSystemConfig config = fileSystem.getConfig();
+        int rangeSize = config.getParallelDownloadRangeSize();
+        long rangeCount = (endPosition - fromPosition + rangeSize - 1) / rangeSize;
+        int threads = (int) Math.min(config.getParallelDownloadThreads(), rangeCount);
+
+        long targetPosition = fileChannel.position();
+        AtomicLong nextRange = new AtomicLong();
+        List<Future<Void>> workers = new ArrayList<>(threads);
+        for (int i=0; i<threads; i++) {
+            workers.add(fileSystem.getExecutorService().submit(() -> {
+                ByteBuffer byteBuffer = ByteBuffer.allocate(rangeSize);
+                long range;
+                while ((range = nextRange.getAndIncrement()) < rangeCount) {
+                    long rangeStart = fromPosition + range * rangeSize;
+                    int rangeLength = (int) Math.min(rangeSize, endPosition - rangeStart);
+
+                    byteBuffer.clear();
+                    byteBuffer.limit(rangeLength);
+                    if (read(byteBuffer, rangeStart) != rangeLength) {
+                        throw new IOException("File '" + path.normalize().toString() + "' changed during download.");
+                    }
+
+                    byteBuffer.flip();
+                    long writePosition = targetPosition + (rangeStart - fromPosition);
+                    while (byteBuffer.hasRemaining()) {
+                        writePosition += fileChannel.write(byteBuffer, writePosition);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<Void> worker: workers) {
+                SafenetFutures.get(worker);
+            }
+        } finally {
+            for (Future<Void> worker: workers) {
+                worker.cancel(true);
+            }
+        }
+
+        long transferred = endPosition - fromPosition;
+        fileChannel.position(targetPosition + transferred);
+        return transferred;
     }
 
+    private Future<Integer> fetchChunk(ByteBuffer byteBuffer, long fromPosition, int length) {
+        byteBuffer.clear();
+        byteBuffer.limit(length);
+        return fileSystem.getExecutorService().submit(() -> {
+            int bytesRead = read(byteBuffer, fromPosition);
+            byteBuffer.flip();
+            return bytesRead;
+        });
+    }
+
+    /**
+     * Pulls up to <code>count</code> bytes from the source and uploads them as the file content in a
+     * single create call. The create call takes the whole content as one array, so the content is
+     * held on the heap in an array grown as it fills, and a source with more bytes than the largest
+     * array fails with an IOException before anything is uploaded.
+     *
+     * Transfers to a non-zero position, and all transfers with WriteBehind set, go into the held
+     * writes instead and are uploaded on force or close.
+     */
     @Override
-    public long transferFrom(ReadableByteChannel readableByteChannel, long l, long l1) throws IOException {
-        return 0;
+    public long transferFrom(ReadableByteChannel readableByteChannel, long toPosition, long count) throws IOException {
+        if (toPosition < 0 || count < 0) throw new IllegalArgumentException("Negative position or count.");
+
+        if (writeBehind || pageMap != null || toPosition != 0) {
+            return transferToPageMap(readableByteChannel, toPosition, count);
+        }
+
+        long maxSize = SafenetBuffers.MAX_ARRAY_SIZE;
+        byte[] content = new byte[(int) Math.min(Math.min(count, maxSize), TRANSFER_FROM_INITIAL_CAPACITY)];
+        int size = 0;
+        while (size < count) {
+            if (size == content.length) {
+                if (size >= maxSize) {
+                    if (readableByteChannel.read(ByteBuffer.allocate(1)) > 0) {
+                        throw new IOException("Transfer into '" + path.normalize().toString() + "' is larger than the "
+                                + maxSize + " bytes a single upload can carry.");
+                    }
+                    break;
+                }
+                content = Arrays.copyOf(content, (int) Math.min(Math.min(count, maxSize), Math.max((long) size * 2, 1)));
+            }
+
+            int bytesRead = readableByteChannel.read(ByteBuffer.wrap(content, size, content.length - size));
+            if (bytesRead <= 0) break;
+            size += bytesRead;
+        }
+        if (size == 0) return 0;
+
+        if (!createFile(size == content.length ? content : Arrays.copyOf(content, size))) {
+            throw new IOException("Create file '" + path.normalize().toString() + "' was not accepted.");
+        }
+        return size;
+    }
+
+    /**
+     * Reads up to <code>count</code> bytes from the source into the held writes at the position.
+     */
+    private long transferToPageMap(ReadableByteChannel readableByteChannel, long toPosition, long count) throws IOException {
+        SafenetPageMap pageMap = getPageMap();
+        if (toPosition > pageMap.size()) return 0;
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate((int) Math.min(pageMap.getPageSize(), Math.max(count, 1)));
+        long transferred = 0;
+        while (transferred < count) {
+            byteBuffer.clear();
+            byteBuffer.limit((int) Math.min(byteBuffer.capacity(), count - transferred));
+            if (readableByteChannel.read(byteBuffer) <= 0) break;
+
+            byteBuffer.flip();
+            transferred += pageMap.write(byteBuffer, toPosition + transferred);
+            pageMapDirty = true;
+        }
+        return transferred;
     }
 
     @Override
     public int read(ByteBuffer byteBuffer, long fromPosition) throws IOException {
-        int bufferLength = byteBuffer.capacity();
+        if (pageMap != null) return readOverlay(byteBuffer, fromPosition);
+        return readBase(byteBuffer, fromPosition);
+    }
+
+    private int readBase(ByteBuffer byteBuffer, long fromPosition) throws IOException {
+        if (chunkCache != null) return readCached(byteBuffer, fromPosition);
+        if (!byteBuffer.hasRemaining()) return 0;
+
+        if (fileSystem.getReadCoalescer() != null) {
+            byte[] bytes = readRange(fromPosition, byteBuffer.remaining());
+            byteBuffer.put(bytes);
+            return bytes.length == 0 ? -1 : bytes.length;
+        }
+
         String pathString = path.normalize().toString();
 
         try {
+            SafenetFile safenetFile = safenetFactory.makeGetFileCommand(pathString, fromPosition, byteBuffer.remaining()).execute();
+
+            int bytesRead;
+            try (InputStream inputStream = safenetFile.getInputStream()) {
+                bytesRead = SafenetBuffers.readFully(inputStream, byteBuffer);
+            }
 
-            byte[] buf = new byte[bufferLength];
+            return bytesRead == 0 ? -1 : bytesRead;
+        } catch(HystrixRuntimeException | SafenetBadRequestException e) {
+            throw new IOException("Get file '" + pathString + "' failed.", e);
+        }
+    }
 
-            SafenetFile safenetFile = safenetFactory.makeGetFileCommand(pathString, fromPosition, bufferLength).execute();
-            InputStream inputStream = safenetFile.getInputStream();
+    private int readCached(ByteBuffer byteBuffer, long fromPosition) throws IOException {
+        if (!byteBuffer.hasRemaining()) return 0;
 
-            int bytesRead = inputStream.read(buf);
-            byteBuffer.clear();
-            byteBuffer.put(buf);
-            inputStream.close();
+        String pathString = path.normalize().toString();
+        long version = getLastModified(pathString);
+        int blockSize = chunkCache.getBlockSize();
+
+        long position = fromPosition;
+        int totalBytesRead = 0;
+        while (byteBuffer.hasRemaining()) {
+            long blockIndex = position / blockSize;
+            ByteBuffer block = chunkCache.get(pathString, version, blockIndex);
+            if (block == null) {
+                block = chunkCache.put(pathString, version, blockIndex, readRange(blockIndex * blockSize, blockSize));
+            }
 
-            return bytesRead;
+            int offset = (int) (position - blockIndex * blockSize);
+            if (offset >= block.limit()) break;
+
+            int length = Math.min(byteBuffer.remaining(), block.limit() - offset);
+            block.limit(offset + length).position(offset);
+            byteBuffer.put(block);
+            position += length;
+            totalBytesRead += length;
+
+            // A short block is the last block of the file
+            if (block.capacity() < blockSize) break;
+        }
+
+        return totalBytesRead == 0 ? -1 : totalBytesRead;
+    }
+
+    private long getLastModified(String pathString) throws IOException {
+        if (lastModified == -1) {
+            try {
+                SafenetFile safenetFile = fileSystem.getSingleFlight().getFileAttributes(pathString);
+                lastModified = safenetFile.getLastModified().toInstant().toEpochMilli();
+            } catch(HystrixRuntimeException | SafenetBadRequestException e) {
+                throw new IOException("Get file attributes for '" + pathString + "' failed.", e);
+            }
+        }
+        return lastModified;
+    }
+
+    /**
+     * Fetches up to <code>length</code> bytes from <code>fromPosition</code>. The returned array is only
+     * shorter than requested when the end of the file was reached.
+     */
+    byte[] readRange(long fromPosition, int length) throws IOException {
+        String pathString = path.normalize().toString();
+
+        try {
+            SafenetReadCoalescer readCoalescer = fileSystem.getReadCoalescer();
+            if (readCoalescer != null) return readCoalescer.read(pathString, fromPosition, length);
+            return fileSystem.getSingleFlight().getFileRange(pathString, fromPosition, length);
         } catch(HystrixRuntimeException | SafenetBadRequestException e) {
             throw new IOException("Get file '" + pathString + "' failed.", e);
         }
     }
 
+    /**
+     * Records the write in the page map, overlaid on the file content, for a single upload on force
+     * or close. Reads through this channel see the write straight away.
+     */
     @Override
-    public int write(ByteBuffer byteBuffer, long l) throws IOException {
-        return 0;
+    public int write(ByteBuffer byteBuffer, long toPosition) throws IOException {
+        if (toPosition < 0) throw new IllegalArgumentException("Negative position.");
+
+        int bytesWritten = getPageMap().write(byteBuffer, toPosition);
+        pageMapDirty = true;
+        return bytesWritten;
     }
 
     @Override
@@ -185,7 +708,21 @@ public class SafenetFileChannel extends FileChannel {
         return null;
     }
 
+    /**
+     * Drops any held writes without uploading them and closes the channel.
+     */
+    void discard() throws IOException {
+        pageMapDirty = false;
+        close();
+    }
+
     @Override
     protected void implCloseChannel() throws IOException {
+        try {
+            if (pageMap != null) flushPageMap(true);
+        } finally {
+            if (pageMap != null) pageMap.close();
+            if (readAhead != null) readAhead.reset();
+        }
     }
 }
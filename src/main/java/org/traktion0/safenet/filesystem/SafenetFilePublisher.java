@@ -0,0 +1,154 @@
+package org.traktion0.safenet.filesystem;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.traktion0.safenet.client.commands.SafenetFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reactive Streams publisher of a file's content.
+ *
+ * Each subscriber reads the file from the start through its own channel. A range of up to
+ * TransferChunkSize bytes is fetched for each element requested, and only once it has been requested,
+ * so a slow subscriber holds neither buffered content nor a thread while it is not asking for more.
+ */
+public class SafenetFilePublisher implements Publisher<ByteBuffer> {
+    private final SafenetFactory safenetFactory;
+    private final Path path;
+    private final Executor executor;
+    private final int chunkSize;
+
+    public SafenetFilePublisher(SafenetFactory safenetFactory, Path path) {
+        SafenetFileSystem fileSystem = (SafenetFileSystem) path.getFileSystem();
+        this.safenetFactory = safenetFactory;
+        this.path = path;
+        this.executor = fileSystem.getExecutorService();
+        this.chunkSize = fileSystem.getConfig().getTransferChunkSize();
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+        if (subscriber == null) throw new NullPointerException("Subscriber is null.");
+
+        FileSubscription subscription = new FileSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private class FileSubscription implements Subscription, Runnable {
+        private final Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        private SafenetFileChannel fileChannel;
+        private long position;
+
+        private FileSubscription(Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                long current;
+                do {
+                    current = demand.get();
+                    if (current == Long.MAX_VALUE) break;
+                } while (!demand.compareAndSet(current, current + Math.min(n, Long.MAX_VALUE - current)));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            // Only one drain runs at a time, so signals to the subscriber are never concurrent
+            if (pendingDrains.getAndIncrement() == 0) executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                emit();
+                missed = pendingDrains.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            while (!cancelled) {
+                if (invalidRequest != null) {
+                    terminate(invalidRequest);
+                    return;
+                }
+                if (demand.get() == 0) return;
+
+                ByteBuffer chunk = ByteBuffer.allocate(chunkSize);
+                int bytesRead;
+                try {
+                    if (fileChannel == null) {
+                        fileChannel = new SafenetFileChannel(safenetFactory, path, EnumSet.of(StandardOpenOption.READ));
+                    }
+                    bytesRead = fileChannel.read(chunk, position);
+                } catch (IOException | RuntimeException e) {
+                    terminate(e);
+                    return;
+                }
+
+                if (bytesRead <= 0) {
+                    terminate(null);
+                    return;
+                }
+
+                position += bytesRead;
+                chunk.flip();
+                demand.decrementAndGet();
+                subscriber.onNext(chunk);
+
+                // A short range is the end of the file
+                if (bytesRead < chunkSize && !cancelled) {
+                    terminate(null);
+                    return;
+                }
+            }
+            closeChannel();
+        }
+
+        private void terminate(Throwable error) {
+            cancelled = true;
+            closeChannel();
+            if (error != null) {
+                subscriber.onError(error);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+
+        private void closeChannel() {
+            if (fileChannel != null) {
+                try {
+                    fileChannel.close();
+                } catch (IOException e) {
+                    // Nothing was written, so there is nothing to lose
+                }
+                fileChannel = null;
+            }
+        }
+    }
+}
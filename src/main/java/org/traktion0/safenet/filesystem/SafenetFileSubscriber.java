@@ -0,0 +1,107 @@
+package org.traktion0.safenet.filesystem;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.traktion0.safenet.client.commands.SafenetFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Reactive Streams subscriber which uploads the buffers it receives, in order, as a file's content.
+ *
+ * Buffers are requested one at a time and held locally as they arrive, the same way positional
+ * writes are held by {@link SafenetFileChannel}, and the file is uploaded once the publisher
+ * completes. An error from the publisher discards the held content without uploading it. The result
+ * completes with the number of bytes uploaded.
+ */
+public class SafenetFileSubscriber implements Subscriber<ByteBuffer> {
+    private final SafenetFactory safenetFactory;
+    private final Path path;
+    private final Executor executor;
+    private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+    private Subscription subscription;
+    private SafenetFileChannel fileChannel;
+    private long position;
+
+    public SafenetFileSubscriber(SafenetFactory safenetFactory, Path path) {
+        this.safenetFactory = safenetFactory;
+        this.path = path;
+        this.executor = ((SafenetFileSystem) path.getFileSystem()).getExecutorService();
+    }
+
+    public CompletableFuture<Long> getResult() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (subscription == null) throw new NullPointerException("Subscription is null.");
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+
+        this.subscription = subscription;
+        fileChannel = new SafenetFileChannel(safenetFactory, path,
+                EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(ByteBuffer byteBuffer) {
+        if (byteBuffer == null) throw new NullPointerException("Buffer is null.");
+        if (result.isDone()) return;
+
+        try {
+            position += fileChannel.write(byteBuffer, position);
+        } catch (IOException | RuntimeException e) {
+            subscription.cancel();
+            discard(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (throwable == null) throw new NullPointerException("Throwable is null.");
+        discard(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (result.isDone()) return;
+
+        // Upload off the publisher's thread
+        SafenetFileChannel completedChannel = fileChannel;
+        long length = position;
+        executor.execute(() -> {
+            try {
+                // Make sure an empty stream still creates an empty file
+                if (length == 0) completedChannel.write(ByteBuffer.allocate(0), 0);
+                completedChannel.close();
+                result.complete(length);
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void discard(Throwable throwable) {
+        if (fileChannel != null) {
+            try {
+                fileChannel.discard();
+            } catch (IOException e) {
+                throwable.addSuppressed(e);
+            }
+        }
+        result.completeExceptionally(throwable);
+    }
+}
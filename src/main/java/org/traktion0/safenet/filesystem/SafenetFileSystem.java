@@ -1,22 +1,22 @@
 package org.traktion0.safenet.filesystem;
 
 import com.netflix.hystrix.exception.HystrixRuntimeException;
-import org.apache.commons.io.FilenameUtils;
 import org.traktion0.safenet.client.beans.Info;
 import org.traktion0.safenet.client.beans.SafenetDirectory;
 import org.traktion0.safenet.client.commands.SafenetBadRequestException;
 import org.traktion0.safenet.client.commands.SafenetFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.file.*;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
-import java.util.Iterator;
-import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by paul on 05/09/16.
@@ -28,15 +28,129 @@ public class SafenetFileSystem extends FileSystem {
     private final URI uri;
     private final FileStore fileStore;
     private final SafenetFactory safenetFactory;
+    private final SafenetFileSystemConfig config;
+    private final SafenetChunkCache chunkCache;
+    private final SafenetMetadataCache metadataCache;
+    private final SafenetSingleFlight singleFlight;
+    private final SafenetReadCoalescer readCoalescer;
+    private final SafenetStatCollapser statCollapser;
+    private final SafenetPathInterner pathInterner;
+    private final SafenetPathMatchers pathMatchers = new SafenetPathMatchers();
 
     private boolean isOpen;
+    private ExecutorService executorService;
 
     public SafenetFileSystem(FileSystemProvider provider, URI uri, SafenetFactory safenetFactory) {
+        this(provider, uri, safenetFactory, Collections.<String, Object>emptyMap());
+    }
+
+    public SafenetFileSystem(FileSystemProvider provider, URI uri, SafenetFactory safenetFactory, Map<String, ?> env) {
         this.provider = provider;
         this.uri = uri;
         fileStore = new SafenetFileStore(uri);
         this.isOpen = true;
         this.safenetFactory = safenetFactory;
+        this.config = new SafenetFileSystemConfig(env);
+        if (config.getDiskCacheDirectory() != null) {
+            SafenetDiskCache diskCache;
+            try {
+                diskCache = new SafenetDiskCache(config.getDiskCacheDirectory(), config.getChunkCacheBlockSize(), config.getDiskCacheSize());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Open disk cache '" + config.getDiskCacheDirectory() + "' failed.", e);
+            }
+            chunkCache = new SafenetChunkCache(config.getChunkCacheBlockSize(), config.getChunkCacheSize(), diskCache);
+        } else if (config.getChunkCacheSize() > 0) {
+            chunkCache = new SafenetChunkCache(config.getChunkCacheBlockSize(), config.getChunkCacheSize());
+        } else {
+            chunkCache = null;
+        }
+        singleFlight = new SafenetSingleFlight(safenetFactory, config.isSingleFlight());
+        if (config.getAttributeCacheTtl() > 0) {
+            metadataCache = new SafenetMetadataCache(config.getAttributeCacheTtl(), config.getAttributeCacheMaxEntries(),
+                    singleFlight, task -> getExecutorService().execute(task));
+            if (config.getMetadataSnapshotFile() != null) {
+                SafenetMetadataSnapshot.load(config.getMetadataSnapshotFile(), metadataCache, singleFlight);
+            }
+        } else {
+            metadataCache = null;
+        }
+        if (config.getReadCoalesceWindow() > 0) {
+            readCoalescer = new SafenetReadCoalescer(singleFlight, config.getReadCoalesceWindow(), config.getReadCoalesceMaxRange());
+        } else {
+            readCoalescer = null;
+        }
+        if (config.getStatCollapseWindow() > 0) {
+            statCollapser = new SafenetStatCollapser(singleFlight, metadataCache, config.getStatCollapseWindow());
+        } else {
+            statCollapser = null;
+        }
+        pathInterner = config.isPathInterning() ? new SafenetPathInterner(this) : null;
+    }
+
+    public SafenetFileSystemConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the shared block cache, or null when it is disabled.
+     */
+    SafenetChunkCache getChunkCache() {
+        return chunkCache;
+    }
+
+    /**
+     * Returns the path kind and attribute cache, or null when it is disabled.
+     */
+    SafenetMetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * Returns the read calls to the launcher, which share concurrent identical requests when SingleFlight is set.
+     */
+    SafenetSingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Returns the merger of concurrent nearby positional reads, or null when it is disabled.
+     */
+    SafenetReadCoalescer getReadCoalescer() {
+        return readCoalescer;
+    }
+
+    /**
+     * Returns the resolver of sibling attribute lookups from one parent listing, or null when it is disabled.
+     */
+    SafenetStatCollapser getStatCollapser() {
+        return statCollapser;
+    }
+
+    /**
+     * Returns the table of canonical path instances, or null when path interning is disabled.
+     */
+    SafenetPathInterner getPathInterner() {
+        return pathInterner;
+    }
+
+    /**
+     * Shared pool for background remote calls (read-ahead etc.). Threads are daemons and the pool is
+     * created on first use, so file systems which never need it pay nothing.
+     */
+    synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            executorService = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "safenet-io-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executorService;
     }
 
     @Override
@@ -46,13 +160,27 @@ public class SafenetFileSystem extends FileSystem {
 
     @Override
     public void close() throws IOException {
+        IOException snapshotException = null;
+        if (metadataCache != null && config.getMetadataSnapshotFile() != null) {
+            try {
+                SafenetMetadataSnapshot.save(config.getMetadataSnapshotFile(), metadataCache);
+            } catch (IOException e) {
+                // Still end the session, then report the lost snapshot
+                snapshotException = e;
+            }
+        }
+
         try {
             if (safenetFactory != null) safenetFactory.makeDeleteAuthTokenCommand().execute();
         } catch(HystrixRuntimeException | SafenetBadRequestException e) {
             throw new IOException("Delete auth token failed.", e);
         } finally {
             isOpen = false;
+            synchronized (this) {
+                if (executorService != null) executorService.shutdownNow();
+            }
         }
+        if (snapshotException != null) throw snapshotException;
     }
 
     @Override
@@ -76,7 +204,7 @@ public class SafenetFileSystem extends FileSystem {
         if (path.equals("")) path = getSeparator();
 
         try {
-            SafenetDirectory rootDirectory = safenetFactory.makeGetDirectoryCommand(path).execute();
+            SafenetDirectory rootDirectory = singleFlight.getDirectory(path);
             List<Info> subDirectories = rootDirectory.getSubDirectories();
             FileSystem fileSystem = this;
 
@@ -92,7 +220,7 @@ public class SafenetFileSystem extends FileSystem {
                     if (pos >= subDirectories.size()) {
                         throw new NoSuchElementException();
                     }
-                    return new SafenetPath(fileSystem, URI.create(subDirectories.get(pos++).getName()));
+                    return new SafenetPath(fileSystem, subDirectories.get(pos++).getName());
                 }
             };
         } catch(HystrixRuntimeException | SafenetBadRequestException e) {
@@ -140,30 +268,21 @@ public class SafenetFileSystem extends FileSystem {
     @Override
     public Path getPath(String s, String... strings) {
         String fullPath = s;
-        for (String pathPart: strings) {
-            fullPath += getSeparator() + pathPart;
+        if (strings.length > 0) {
+            StringBuilder fullPathBuilder = new StringBuilder(s);
+            for (String pathPart: strings) {
+                fullPathBuilder.append(getSeparator()).append(pathPart);
+            }
+            fullPath = fullPathBuilder.toString();
         }
 
-        URI pathUri = URI.create(fullPath);
-        return new SafenetPath(this, pathUri);
+        SafenetPath path = new SafenetPath(this, fullPath);
+        return pathInterner != null ? pathInterner.intern(path) : path;
     }
 
     @Override
     public PathMatcher getPathMatcher(String syntaxAndPattern) {
-        if (!syntaxAndPattern.contains(":")) throw new IllegalArgumentException("Syntax/pattern string must contain ':' delimiter.");
-
-        String syntaxStr = syntaxAndPattern.substring(0, syntaxAndPattern.indexOf(":"));
-        String patternStr = syntaxAndPattern.substring(syntaxAndPattern.indexOf(":")+1);
-
-        return path -> {
-            if (syntaxStr.equals("regex")) {
-                Pattern pattern = Pattern.compile(patternStr);
-                return pattern.matcher(path.toString()).matches();
-            } else if (syntaxStr.equals("glob")) {
-                return FilenameUtils.wildcardMatch(path.toString(), patternStr);
-            }
-            throw new IllegalArgumentException("Invalid syntax - regex or glob required.");
-        };
+        return pathMatchers.getPathMatcher(syntaxAndPattern);
     }
 
     @Override
@@ -0,0 +1,267 @@
+package org.traktion0.safenet.filesystem;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Tuning options for a {@link SafenetFileSystem}, read from the env map passed to
+ * {@link SafenetFileSystemProvider#newFileSystem(java.net.URI, Map)}.
+ *
+ * Values may be supplied as numbers or as strings. Every option has a default, so an env map
+ * containing only the SafenetFactory is still valid.
+ */
+public class SafenetFileSystemConfig {
+
+    /** Size in bytes of each range fetched ahead of a sequential reader. */
+    public static final String READ_AHEAD_WINDOW = "ReadAheadWindow";
+    /** Number of read-ahead ranges kept in flight; 0 disables read-ahead. */
+    public static final String READ_AHEAD_DEPTH = "ReadAheadDepth";
+    /** Size in bytes of the blocks held by the shared chunk cache. */
+    public static final String CHUNK_CACHE_BLOCK_SIZE = "ChunkCacheBlockSize";
+    /** Maximum bytes held by the shared chunk cache; 0 disables it. */
+    public static final String CHUNK_CACHE_SIZE = "ChunkCacheSize";
+    /** Size in bytes of each range fetched while transferring to another channel. */
+    public static final String TRANSFER_CHUNK_SIZE = "TransferChunkSize";
+    /** Bytes of held writes kept on the heap before spilling to a temporary file. */
+    public static final String SPOOL_MEMORY_THRESHOLD = "SpoolMemoryThreshold";
+    /** Number of concurrent range fetches when downloading into a local file; 0 disables parallel download. */
+    public static final String PARALLEL_DOWNLOAD_THREADS = "ParallelDownloadThreads";
+    /** Size in bytes of each range fetched by a parallel download. */
+    public static final String PARALLEL_DOWNLOAD_RANGE_SIZE = "ParallelDownloadRangeSize";
+    /** Milliseconds a resolved path kind, its attributes and a directory listing are reused; 0 disables the metadata cache. */
+    public static final String ATTRIBUTE_CACHE_TTL = "AttributeCacheTtl";
+    /** Maximum number of paths held by the metadata cache. */
+    public static final String ATTRIBUTE_CACHE_MAX_ENTRIES = "AttributeCacheMaxEntries";
+    /** Whether writes are held locally and uploaded once on force or close, rather than on every write. */
+    public static final String WRITE_BEHIND = "WriteBehind";
+    /** Whether force starts a write-behind upload in the background instead of waiting for it. */
+    public static final String ASYNC_UPLOAD = "AsyncUpload";
+    /** Size in bytes of the pages which held writes are recorded in. */
+    public static final String WRITE_PAGE_SIZE = "WritePageSize";
+    /** Whether concurrent identical attribute, directory and range calls share a single request. */
+    public static final String SINGLE_FLIGHT = "SingleFlight";
+    /** Microseconds a positional read waits for nearby reads of the same file to merge with; 0 disables read coalescing. */
+    public static final String READ_COALESCE_WINDOW = "ReadCoalesceWindow";
+    /** Maximum size in bytes of a range request made from coalesced reads. */
+    public static final String READ_COALESCE_MAX_RANGE = "ReadCoalesceMaxRange";
+    /** Microseconds an attribute lookup waits for lookups of its siblings to share one parent listing with; 0 disables it. */
+    public static final String STAT_COLLAPSE_WINDOW = "StatCollapseWindow";
+    /** Local directory, as a Path or a string, which fetched blocks are kept in across restarts; unset disables the disk cache. */
+    public static final String DISK_CACHE_DIRECTORY = "DiskCacheDirectory";
+    /** Maximum bytes of blocks kept in the disk cache directory. */
+    public static final String DISK_CACHE_SIZE = "DiskCacheSize";
+    /** Local file, as a Path or a string, which the metadata cache is loaded from on open and saved to on close; unset disables it. */
+    public static final String METADATA_SNAPSHOT_FILE = "MetadataSnapshotFile";
+    /** Whether paths made by the file system are shared canonical instances, one per distinct normal path. */
+    public static final String PATH_INTERNING = "PathInterning";
+    /** Maximum number of directories a tree walk lists at the same time. */
+    public static final String WALK_PARALLELISM = "WalkParallelism";
+
+    private static final long DEFAULT_READ_AHEAD_WINDOW = 1024 * 1024;
+    private static final long DEFAULT_READ_AHEAD_DEPTH = 0;
+    private static final long DEFAULT_CHUNK_CACHE_BLOCK_SIZE = 256 * 1024;
+    private static final long DEFAULT_CHUNK_CACHE_SIZE = 0;
+    private static final long DEFAULT_TRANSFER_CHUNK_SIZE = 1024 * 1024;
+    private static final long DEFAULT_SPOOL_MEMORY_THRESHOLD = 8 * 1024 * 1024;
+    private static final long DEFAULT_PARALLEL_DOWNLOAD_THREADS = 0;
+    private static final long DEFAULT_PARALLEL_DOWNLOAD_RANGE_SIZE = 4 * 1024 * 1024;
+    private static final long DEFAULT_ATTRIBUTE_CACHE_TTL = 0;
+    private static final long DEFAULT_ATTRIBUTE_CACHE_MAX_ENTRIES = 100000;
+    private static final boolean DEFAULT_WRITE_BEHIND = false;
+    private static final boolean DEFAULT_ASYNC_UPLOAD = false;
+    private static final long DEFAULT_WRITE_PAGE_SIZE = 64 * 1024;
+    private static final boolean DEFAULT_SINGLE_FLIGHT = false;
+    private static final long DEFAULT_READ_COALESCE_WINDOW = 0;
+    private static final long DEFAULT_READ_COALESCE_MAX_RANGE = 4 * 1024 * 1024;
+    private static final long DEFAULT_STAT_COLLAPSE_WINDOW = 0;
+    private static final long DEFAULT_DISK_CACHE_SIZE = 1024L * 1024 * 1024;
+    private static final boolean DEFAULT_PATH_INTERNING = false;
+    private static final long DEFAULT_WALK_PARALLELISM = 8;
+
+    private final int readAheadWindow;
+    private final int readAheadDepth;
+    private final int chunkCacheBlockSize;
+    private final long chunkCacheSize;
+    private final int transferChunkSize;
+    private final long spoolMemoryThreshold;
+    private final int parallelDownloadThreads;
+    private final int parallelDownloadRangeSize;
+    private final long attributeCacheTtl;
+    private final int attributeCacheMaxEntries;
+    private final boolean writeBehind;
+    private final boolean asyncUpload;
+    private final int writePageSize;
+    private final boolean singleFlight;
+    private final long readCoalesceWindow;
+    private final int readCoalesceMaxRange;
+    private final long statCollapseWindow;
+    private final Path diskCacheDirectory;
+    private final long diskCacheSize;
+    private final Path metadataSnapshotFile;
+    private final boolean pathInterning;
+    private final int walkParallelism;
+
+    public SafenetFileSystemConfig() {
+        this(Collections.<String, Object>emptyMap());
+    }
+
+    public SafenetFileSystemConfig(Map<String, ?> env) {
+        readAheadWindow = (int) getLong(env, READ_AHEAD_WINDOW, DEFAULT_READ_AHEAD_WINDOW, 1, Integer.MAX_VALUE);
+        readAheadDepth = (int) getLong(env, READ_AHEAD_DEPTH, DEFAULT_READ_AHEAD_DEPTH, 0, Integer.MAX_VALUE);
+        chunkCacheBlockSize = (int) getLong(env, CHUNK_CACHE_BLOCK_SIZE, DEFAULT_CHUNK_CACHE_BLOCK_SIZE, 1, Integer.MAX_VALUE);
+        chunkCacheSize = getLong(env, CHUNK_CACHE_SIZE, DEFAULT_CHUNK_CACHE_SIZE, 0, Long.MAX_VALUE);
+        transferChunkSize = (int) getLong(env, TRANSFER_CHUNK_SIZE, DEFAULT_TRANSFER_CHUNK_SIZE, 1, Integer.MAX_VALUE);
+        spoolMemoryThreshold = getLong(env, SPOOL_MEMORY_THRESHOLD, DEFAULT_SPOOL_MEMORY_THRESHOLD, 0, Long.MAX_VALUE);
+        parallelDownloadThreads = (int) getLong(env, PARALLEL_DOWNLOAD_THREADS, DEFAULT_PARALLEL_DOWNLOAD_THREADS, 0, Integer.MAX_VALUE);
+        parallelDownloadRangeSize = (int) getLong(env, PARALLEL_DOWNLOAD_RANGE_SIZE, DEFAULT_PARALLEL_DOWNLOAD_RANGE_SIZE, 1, Integer.MAX_VALUE);
+        attributeCacheTtl = getLong(env, ATTRIBUTE_CACHE_TTL, DEFAULT_ATTRIBUTE_CACHE_TTL, 0, Long.MAX_VALUE / 1000000L);
+        attributeCacheMaxEntries = (int) getLong(env, ATTRIBUTE_CACHE_MAX_ENTRIES, DEFAULT_ATTRIBUTE_CACHE_MAX_ENTRIES, 1, Integer.MAX_VALUE);
+        writeBehind = getBoolean(env, WRITE_BEHIND, DEFAULT_WRITE_BEHIND);
+        asyncUpload = getBoolean(env, ASYNC_UPLOAD, DEFAULT_ASYNC_UPLOAD);
+        writePageSize = (int) getLong(env, WRITE_PAGE_SIZE, DEFAULT_WRITE_PAGE_SIZE, 1, Integer.MAX_VALUE);
+        singleFlight = getBoolean(env, SINGLE_FLIGHT, DEFAULT_SINGLE_FLIGHT);
+        readCoalesceWindow = getLong(env, READ_COALESCE_WINDOW, DEFAULT_READ_COALESCE_WINDOW, 0, Long.MAX_VALUE / 1000L);
+        readCoalesceMaxRange = (int) getLong(env, READ_COALESCE_MAX_RANGE, DEFAULT_READ_COALESCE_MAX_RANGE, 1, Integer.MAX_VALUE);
+        statCollapseWindow = getLong(env, STAT_COLLAPSE_WINDOW, DEFAULT_STAT_COLLAPSE_WINDOW, 0, Long.MAX_VALUE / 1000L);
+        diskCacheDirectory = getPath(env, DISK_CACHE_DIRECTORY);
+        diskCacheSize = getLong(env, DISK_CACHE_SIZE, DEFAULT_DISK_CACHE_SIZE, 0, Long.MAX_VALUE);
+        metadataSnapshotFile = getPath(env, METADATA_SNAPSHOT_FILE);
+        pathInterning = getBoolean(env, PATH_INTERNING, DEFAULT_PATH_INTERNING);
+        walkParallelism = (int) getLong(env, WALK_PARALLELISM, DEFAULT_WALK_PARALLELISM, 1, Integer.MAX_VALUE);
+    }
+
+    public int getReadAheadWindow() {
+        return readAheadWindow;
+    }
+
+    public int getReadAheadDepth() {
+        return readAheadDepth;
+    }
+
+    public int getChunkCacheBlockSize() {
+        return chunkCacheBlockSize;
+    }
+
+    public long getChunkCacheSize() {
+        return chunkCacheSize;
+    }
+
+    public int getTransferChunkSize() {
+        return transferChunkSize;
+    }
+
+    public long getSpoolMemoryThreshold() {
+        return spoolMemoryThreshold;
+    }
+
+    public int getParallelDownloadThreads() {
+        return parallelDownloadThreads;
+    }
+
+    public int getParallelDownloadRangeSize() {
+        return parallelDownloadRangeSize;
+    }
+
+    public long getAttributeCacheTtl() {
+        return attributeCacheTtl;
+    }
+
+    public int getAttributeCacheMaxEntries() {
+        return attributeCacheMaxEntries;
+    }
+
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    public boolean isAsyncUpload() {
+        return asyncUpload;
+    }
+
+    public int getWritePageSize() {
+        return writePageSize;
+    }
+
+    public boolean isSingleFlight() {
+        return singleFlight;
+    }
+
+    public long getReadCoalesceWindow() {
+        return readCoalesceWindow;
+    }
+
+    public int getReadCoalesceMaxRange() {
+        return readCoalesceMaxRange;
+    }
+
+    public long getStatCollapseWindow() {
+        return statCollapseWindow;
+    }
+
+    public Path getDiskCacheDirectory() {
+        return diskCacheDirectory;
+    }
+
+    public long getDiskCacheSize() {
+        return diskCacheSize;
+    }
+
+    public Path getMetadataSnapshotFile() {
+        return metadataSnapshotFile;
+    }
+
+    public boolean isPathInterning() {
+        return pathInterning;
+    }
+
+    public int getWalkParallelism() {
+        return walkParallelism;
+    }
+
+    private static Path getPath(Map<String, ?> env, String key) {
+        Object value = env.get(key);
+        if (value == null) return null;
+        if (value instanceof Path) return (Path) value;
+
+        try {
+            return Paths.get(value.toString().trim());
+        } catch (InvalidPathException e) {
+            throw new IllegalArgumentException("Invalid value for '" + key + "': " + value, e);
+        }
+    }
+
+    private static boolean getBoolean(Map<String, ?> env, String key, boolean defaultValue) {
+        Object value = env.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Boolean) return (Boolean) value;
+
+        String stringValue = value.toString().trim();
+        if (stringValue.equalsIgnoreCase("true")) return true;
+        if (stringValue.equalsIgnoreCase("false")) return false;
+        throw new IllegalArgumentException("Invalid value for '" + key + "': " + value);
+    }
+
+    private static long getLong(Map<String, ?> env, String key, long defaultValue, long min, long max) {
+        Object value = env.get(key);
+        if (value == null) return defaultValue;
+
+        long longValue;
+        if (value instanceof Number) {
+            longValue = ((Number) value).longValue();
+        } else {
+            try {
+                longValue = Long.parseLong(value.toString().trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for '" + key + "': " + value, e);
+            }
+        }
+
+        if (longValue < min || longValue > max) {
+            throw new IllegalArgumentException("Value for '" + key + "' out of range [" + min + ", " + max + "]: " + longValue);
+        }
+        return longValue;
+    }
+}
@@ -1,7 +1,7 @@
 package org.traktion0.safenet.filesystem;
 
 import com.netflix.hystrix.exception.HystrixRuntimeException;
-import org.traktion0.safenet.client.beans.Info;
+import org.reactivestreams.Publisher;
 import org.traktion0.safenet.client.beans.SafenetDirectory;
 import org.traktion0.safenet.client.beans.SafenetFile;
 import org.traktion0.safenet.client.commands.SafenetBadRequestException;
@@ -10,7 +10,9 @@ import org.traktion0.safenet.client.commands.SafenetFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
@@ -22,6 +24,7 @@ import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
 
 /**
  * Created by paul on 04/09/16.
@@ -50,7 +53,13 @@ public class SafenetFileSystemProvider extends FileSystemProvider {
                 throw new IOException("Required SafenetFactory not provided.");
             }
 
-            FileSystem fs = new SafenetFileSystem(this, uri, safenetFactory);
+            FileSystem fs;
+            try {
+                fs = new SafenetFileSystem(this, uri, safenetFactory, map);
+            } catch (UncheckedIOException e) {
+                // Opening the disk cache can fail as the file system is created
+                throw e.getCause();
+            }
             fileSystems.put(uri, fs);
 
             return fs;
@@ -81,59 +90,35 @@ public class SafenetFileSystemProvider extends FileSystemProvider {
 
     @Override
     public DirectoryStream<Path> newDirectoryStream(Path path, DirectoryStream.Filter<? super Path> filter) throws IOException {
-        try {
-            SafenetDirectory safenetDirectory = safenetFactory.makeGetDirectoryCommand(path.toString()).execute();
+        return new SafenetDirectoryStream(path, getDirectory(path), filter);
+    }
 
-            List<Path> filesAndSubdirectories = new ArrayList<>();
-            for (Info info: safenetDirectory.getSubDirectories()){
-                filesAndSubdirectories.add(resolveInfoToPath(path, info));
-            }
-            for (Info info: safenetDirectory.getFiles()){
-                filesAndSubdirectories.add(resolveInfoToPath(path, info));
+    /**
+     * Returns the listing of the directory, from the metadata cache where it holds one.
+     */
+    SafenetDirectory getDirectory(Path path) throws IOException {
+        try {
+            SafenetMetadataCache metadataCache = getMetadataCache(path);
+            if (metadataCache != null) {
+                SafenetMetadataCache.Entry entry = metadataCache.get(path.normalize().toString());
+                if (entry != null && entry.getListing() != null) {
+                    return entry.getListing();
+                }
             }
 
-            return new DirectoryStream<Path>() {
-                @Override
-                public Iterator<Path> iterator() {
-                    return new Iterator<Path>() {
-                        private int pos = 0;
-                        private Path nextPath;
-
-                        @Override
-                        public boolean hasNext() {
-                            if (pos < filesAndSubdirectories.size()) {
-                                nextPath = filesAndSubdirectories.get(pos);
-                                return true;
-                            }
-                            return false;
-                        }
-
-                        @Override
-                        public Path next() {
-                            if (pos >= filesAndSubdirectories.size()) {
-                                throw new NoSuchElementException();
-                            }
-                            pos++;
-                            return nextPath;
-                        }
-                    };
-                }
+            SafenetSingleFlight singleFlight = ((SafenetFileSystem) path.getFileSystem()).getSingleFlight();
+            SafenetDirectory safenetDirectory = singleFlight.getDirectory(path.toString());
 
-                @Override
-                public void close() throws IOException {
-                    // PG:TODO: This may need implementing
-                }
-            };
+            if (metadataCache != null) {
+                metadataCache.putListing(path.normalize().toString(), SafenetDirectoryStream.getChildPrefix(path), safenetDirectory, singleFlight);
+            }
+
+            return safenetDirectory;
         } catch(HystrixRuntimeException | SafenetBadRequestException e) {
             throw new IOException("Get directory '" + path.toString() + "' failed.", e);
         }
     }
 
-    private Path resolveInfoToPath(Path path, Info info) {
-        String pathString = path.resolve(info.getName()).toString();
-        return new SafenetPath(path.getFileSystem(), URI.create(pathString));
-    }
-
     @Override
     public FileSystem newFileSystem(Path path, Map<String, ?> map) throws IOException {
         return newFileSystem(path.toUri(), map);
@@ -156,7 +141,37 @@ public class SafenetFileSystemProvider extends FileSystemProvider {
 
     @Override
     public AsynchronousFileChannel newAsynchronousFileChannel(Path path, Set<? extends OpenOption> set, ExecutorService executorService, FileAttribute<?>... fileAttributes) throws IOException {
-        return super.newAsynchronousFileChannel(path, set, executorService, fileAttributes);
+        if (executorService == null) executorService = ((SafenetFileSystem) path.getFileSystem()).getExecutorService();
+        return new SafenetAsynchronousFileChannel(safenetFactory, path, set, executorService, fileAttributes);
+    }
+
+    /**
+     * Returns a lazily populated stream of the paths under the start path, like
+     * {@link Files#walk(Path, int, FileVisitOption...)}, but listing up to WalkParallelism directories
+     * at a time. Paths are streamed as their parent's listing arrives, so they are in no particular
+     * order. A directory which cannot be listed is reported by the stream throwing an
+     * {@link java.io.UncheckedIOException}; the stream should be closed to stop any listing still running.
+     */
+    public Stream<Path> walk(Path start, int maxDepth) throws IOException {
+        if (maxDepth < 0) throw new IllegalArgumentException("maxDepth is negative.");
+
+        SafenetFileSystem fileSystem = (SafenetFileSystem) start.getFileSystem();
+        return new SafenetTreeWalker(this, fileSystem.getExecutorService(), fileSystem.getConfig().getWalkParallelism(), maxDepth)
+                .walk((SafenetPath) start);
+    }
+
+    /**
+     * Returns a Reactive Streams publisher of the file's content, fetched as subscribers request it.
+     */
+    public Publisher<ByteBuffer> newPublisher(Path path) {
+        return new SafenetFilePublisher(safenetFactory, path);
+    }
+
+    /**
+     * Returns a Reactive Streams subscriber which uploads the buffers it receives as the file's content.
+     */
+    public SafenetFileSubscriber newSubscriber(Path path) {
+        return new SafenetFileSubscriber(safenetFactory, path);
     }
 
     @Override
@@ -166,17 +181,106 @@ public class SafenetFileSystemProvider extends FileSystemProvider {
             safenetFactory.makeCreateDirectoryCommand(pathString).execute();
         } catch(HystrixRuntimeException | SafenetBadRequestException e) {
             throw new IOException("Create directory '" + pathString + "' failed.", e);
+        } finally {
+            SafenetMetadataCache metadataCache = getMetadataCache(path);
+            if (metadataCache != null) metadataCache.invalidate(pathString);
         }
     }
 
     @Override
     public void delete(Path path) throws IOException {
-
+        SafenetMetadataCache metadataCache = getMetadataCache(path);
+        if (metadataCache != null) metadataCache.invalidate(path.normalize().toString());
     }
 
+    /**
+     * Copies a SAFE file to a path on another file system by transferring into a local FileChannel,
+     * which uses the parallel range download when ParallelDownloadThreads is configured.
+     *
+     * Files.copy only delegates to a provider when both paths belong to it, so callers copying to a
+     * local path should call this method on the SAFE provider directly.
+     *
+     * A copy to another SAFE path reads the source into one array and uploads it with a single create
+     * file call, so it is limited to the largest array size. Only REPLACE_EXISTING and NOFOLLOW_LINKS
+     * are supported; there are no links to follow.
+     */
     @Override
     public void copy(Path path, Path path1, CopyOption... copyOptions) throws IOException {
+        boolean replaceExisting = false;
+        for (CopyOption copyOption : copyOptions) {
+            if (copyOption == StandardCopyOption.REPLACE_EXISTING) {
+                replaceExisting = true;
+            } else if (copyOption != LinkOption.NOFOLLOW_LINKS) {
+                throw new UnsupportedOperationException("Unsupported copy option: " + copyOption);
+            }
+        }
 
+        if (path1.getFileSystem().provider() == this) {
+            copyWithin(path, path1, replaceExisting);
+            return;
+        }
+
+        Set<OpenOption> targetOptions = new HashSet<>();
+        targetOptions.add(StandardOpenOption.WRITE);
+        if (replaceExisting) {
+            targetOptions.add(StandardOpenOption.CREATE);
+            targetOptions.add(StandardOpenOption.TRUNCATE_EXISTING);
+        } else {
+            targetOptions.add(StandardOpenOption.CREATE_NEW);
+        }
+
+        try (FileChannel sourceChannel = newFileChannel(path, EnumSet.of(StandardOpenOption.READ));
+             FileChannel targetChannel = FileChannel.open(path1, targetOptions)) {
+            long size = sourceChannel.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = sourceChannel.transferTo(position, size - position, targetChannel);
+                if (transferred <= 0) break;
+                position += transferred;
+            }
+        }
+    }
+
+    private void copyWithin(Path path, Path path1, boolean replaceExisting) throws IOException {
+        BasicFileAttributes attributes = readAttributes(path, BasicFileAttributes.class);
+        if (!replaceExisting && exists(path1)) throw new FileAlreadyExistsException(path1.toString());
+
+        if (attributes.isDirectory()) {
+            if (!exists(path1)) createDirectory(path1);
+            return;
+        }
+
+        // The create file call takes the whole content as one array, so the source is read into an
+        // array of exactly its size, which the target channel uploads without copying it again
+        byte[] content;
+        try (FileChannel sourceChannel = newFileChannel(path, EnumSet.of(StandardOpenOption.READ))) {
+            long size = sourceChannel.size();
+            if (size > SafenetBuffers.MAX_ARRAY_SIZE) {
+                throw new IOException("Copy '" + path + "' of " + size + " bytes is larger than the " + SafenetBuffers.MAX_ARRAY_SIZE + " bytes a single upload can carry.");
+            }
+
+            content = new byte[(int) size];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(content);
+            while (byteBuffer.hasRemaining()) {
+                if (sourceChannel.read(byteBuffer) < 0) {
+                    throw new IOException("Copy '" + path + "' to '" + path1 + "' ended before " + size + " bytes.");
+                }
+            }
+        }
+
+        Set<StandardOpenOption> targetOptions = EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try (FileChannel targetChannel = newFileChannel(path1, targetOptions)) {
+            targetChannel.write(ByteBuffer.wrap(content));
+        }
+    }
+
+    private boolean exists(Path path) throws IOException {
+        try {
+            readAttributes(path, BasicFileAttributes.class);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
     }
 
     @Override
@@ -206,28 +310,60 @@ public class SafenetFileSystemProvider extends FileSystemProvider {
 
     @Override
     public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> aClass, LinkOption... linkOptions) {
+        if (aClass != BasicFileAttributeView.class) return null;
+
         String pathString = path.normalize().toString();
+        SafenetMetadataCache metadataCache = getMetadataCache(path);
+        SafenetSingleFlight singleFlight = ((SafenetFileSystem) path.getFileSystem()).getSingleFlight();
+        if (metadataCache != null) {
+            SafenetMetadataCache.Entry entry = metadataCache.get(pathString);
+            if (entry != null) {
+                if (entry.getKind() == SafenetMetadataCache.Kind.MISSING) return null;
+                return (V) new SafenetBasicFileAttributeView(entry.getAttributes());
+            }
+        }
+
+        SafenetStatCollapser statCollapser = ((SafenetFileSystem) path.getFileSystem()).getStatCollapser();
+        if (statCollapser != null && SafenetStatCollapser.canCollapse(pathString)) {
+            try {
+                SafenetBasicFileAttributes attributes = statCollapser.getAttributes(pathString);
+                if (attributes == null) {
+                    if (metadataCache != null) metadataCache.putMissing(pathString);
+                    return null;
+                }
+                if (metadataCache != null) metadataCache.put(pathString, attributes);
+                return (V) new SafenetBasicFileAttributeView(attributes);
+            } catch(HystrixRuntimeException e) {
+                return null;
+            }
+        }
+
         try {
             // PG:TODO: Factory this out
             try {
-                if (aClass == BasicFileAttributeView.class) {
-                    SafenetFile safenetFile = safenetFactory.makeGetFileAttributesCommand(pathString).execute();
-                    return (V) new SafenetBasicFileAttributeView(safenetFile);
-                }
+                SafenetFile safenetFile = singleFlight.getFileAttributes(pathString);
+                if (metadataCache != null) metadataCache.put(pathString, new SafenetBasicFileAttributes(safenetFile));
+                return (V) new SafenetBasicFileAttributeView(safenetFile);
             } catch (SafenetBadRequestException e) {
                 // PG: Currently, there is no way to get info on a file or a directory, so have to test for file first
                 //     then fall back to test a directory
-                if (aClass == BasicFileAttributeView.class) {
-                    SafenetDirectory safenetDirectory = safenetFactory.makeGetDirectoryCommand(pathString).execute();
-                    return (V) new SafenetBasicFileAttributeView(safenetDirectory);
-                }
+                SafenetDirectory safenetDirectory = singleFlight.getDirectory(pathString);
+                if (metadataCache != null) metadataCache.put(pathString, new SafenetBasicFileAttributes(safenetDirectory));
+                return (V) new SafenetBasicFileAttributeView(safenetDirectory);
             }
-        } catch(HystrixRuntimeException | SafenetBadRequestException e) {
+        } catch(SafenetBadRequestException e) {
+            // Neither a file nor a directory, so remember the path as missing
+            if (metadataCache != null) metadataCache.putMissing(pathString);
+        } catch(HystrixRuntimeException e) {
             // PG: return null when view is unavailable
         }
         return null;
     }
 
+    private SafenetMetadataCache getMetadataCache(Path path) {
+        return ((SafenetFileSystem) path.getFileSystem()).getMetadataCache();
+    }
+
     @Override
     public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> aClass, LinkOption... linkOptions) throws IOException {
         if (aClass == BasicFileAttributes.class) {
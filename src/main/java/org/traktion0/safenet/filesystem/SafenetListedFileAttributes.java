@@ -0,0 +1,72 @@
+package org.traktion0.safenet.filesystem;
+
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import org.traktion0.safenet.client.beans.Info;
+import org.traktion0.safenet.client.commands.SafenetBadRequestException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Attributes of a file seeded from its parent directory listing.
+ *
+ * The listing supplies the kind and timestamps, but not the size, so the size is fetched with a
+ * single file attributes call the first time it is asked for. The outcome of that call, the size or
+ * the failure, is kept, so later calls do no I/O. Unlike other attributes, {@link #size()} can
+ * therefore throw an {@link UncheckedIOException}.
+ */
+class SafenetListedFileAttributes extends SafenetBasicFileAttributes {
+
+    private final SafenetSingleFlight singleFlight;
+    private final String path;
+
+    private volatile long size = -1;
+    private volatile UncheckedIOException failure;
+
+    SafenetListedFileAttributes(Info info, SafenetSingleFlight singleFlight, String path) {
+        super(info, false);
+        this.singleFlight = singleFlight;
+        this.path = path;
+    }
+
+    /**
+     * Creates attributes restored from a metadata snapshot, which did not hold the size either.
+     */
+    SafenetListedFileAttributes(FileTime lastModifiedTime, FileTime creationTime, SafenetSingleFlight singleFlight, String path) {
+        super(lastModifiedTime, creationTime, 0, false);
+        this.singleFlight = singleFlight;
+        this.path = path;
+    }
+
+    /**
+     * Returns the size if it has been fetched, or -1 if it has not.
+     */
+    long getLoadedSize() {
+        return size;
+    }
+
+    /**
+     * Returns the size, fetching it on the first call.
+     *
+     * @throws UncheckedIOException if fetching the size failed, on this call or an earlier one
+     */
+    @Override
+    public long size() {
+        long currentSize = size;
+        if (currentSize >= 0) return currentSize;
+
+        synchronized (this) {
+            if (size >= 0) return size;
+            if (failure != null) throw failure;
+
+            try {
+                size = singleFlight.getFileAttributes(path).getContentLength();
+                return size;
+            } catch (HystrixRuntimeException | SafenetBadRequestException e) {
+                failure = new UncheckedIOException(new IOException("Get file attributes '" + path + "' failed.", e));
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package org.traktion0.safenet.filesystem;
+
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import org.traktion0.safenet.client.beans.Info;
+import org.traktion0.safenet.client.beans.SafenetDirectory;
+import org.traktion0.safenet.client.beans.SafenetFile;
+import org.traktion0.safenet.client.commands.SafenetBadRequestException;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per file system cache of what a path resolves to (file, directory or nothing) and its attributes.
+ *
+ * Entries expire after the configured time to live, and the least recently used entries are dropped
+ * once the entry limit is reached. Remembering missing paths and directories avoids the file then
+ * directory double lookup for every repeated stat of the same path. Directories which have been
+ * listed keep their listing, so listing them again needs no further lookups either.
+ *
+ * Entries loaded from a snapshot are unverified. They are served as they are, and the first use of
+ * each one fetches the path again in the background to replace it.
+ */
+class SafenetMetadataCache {
+
+    enum Kind { FILE, DIRECTORY, MISSING }
+
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries;
+    private final SafenetSingleFlight singleFlight;
+    private final Executor revalidationExecutor;
+
+    SafenetMetadataCache(long ttlMillis, int maxEntries, SafenetSingleFlight singleFlight, Executor revalidationExecutor) {
+        this.ttlNanos = ttlMillis * 1000000L;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SafenetMetadataCache.Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.singleFlight = singleFlight;
+        this.revalidationExecutor = revalidationExecutor;
+    }
+
+    /**
+     * Returns the live entry for the path, or null if it is unknown or has expired.
+     */
+    Entry get(String path) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(path);
+            if (entry == null) return null;
+            if (System.nanoTime() - entry.createdAt > ttlNanos) {
+                entries.remove(path);
+                return null;
+            }
+            if (!entry.unverified) return entry;
+            entry.unverified = false;
+        }
+
+        Entry unverifiedEntry = entry;
+        revalidationExecutor.execute(() -> revalidate(path, unverifiedEntry));
+        return entry;
+    }
+
+    void put(String path, SafenetBasicFileAttributes attributes) {
+        put(path, new Entry(attributes.isDirectory() ? Kind.DIRECTORY : Kind.FILE, attributes));
+    }
+
+    void putMissing(String path) {
+        put(path, new Entry(Kind.MISSING, null));
+    }
+
+    /**
+     * Seeds entries for a fetched directory and each of its children, so that stating the entries
+     * of a listing needs no further lookups. File sizes are not part of a listing and are fetched
+     * on first use.
+     *
+     * @param directoryPath the normalized path of the directory
+     * @param childPrefix the string each child name is appended to
+     */
+    synchronized void putListing(String directoryPath, String childPrefix, SafenetDirectory safenetDirectory, SafenetSingleFlight singleFlight) {
+        entries.put(directoryPath, new Entry(Kind.DIRECTORY, new SafenetBasicFileAttributes(safenetDirectory), safenetDirectory, childPrefix));
+
+        List<Info> subDirectories = safenetDirectory.getSubDirectories();
+        if (subDirectories != null) {
+            for (Info info : subDirectories) {
+                entries.put(childPrefix + info.getName(), new Entry(Kind.DIRECTORY, new SafenetBasicFileAttributes(info, true)));
+            }
+        }
+
+        List<Info> files = safenetDirectory.getFiles();
+        if (files != null) {
+            for (Info info : files) {
+                String path = childPrefix + info.getName();
+                entries.put(path, new Entry(Kind.FILE, new SafenetListedFileAttributes(info, singleFlight, path)));
+            }
+        }
+    }
+
+    /**
+     * Drops the path and its parent, whose listing and modified time change along with it.
+     */
+    synchronized void invalidate(String path) {
+        entries.remove(path);
+
+        int separator = path.lastIndexOf('/', path.length() - 2);
+        if (separator > 0) {
+            entries.remove(path.substring(0, separator));
+        } else if (separator == 0) {
+            entries.remove("/");
+            entries.remove("");
+        }
+    }
+
+    /**
+     * Returns a copy of every file and directory entry, expired or not, least recently used first.
+     */
+    synchronized Map<String, Entry> getEntries() {
+        Map<String, Entry> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().kind != Kind.MISSING) copy.put(entry.getKey(), entry.getValue());
+        }
+        return copy;
+    }
+
+    /**
+     * Adds an unverified entry loaded from a snapshot, unless the path is already known.
+     */
+    synchronized void putUnverified(String path, Entry entry) {
+        entry.unverified = true;
+        entries.putIfAbsent(path, entry);
+    }
+
+    private synchronized void put(String path, Entry entry) {
+        entries.put(path, entry);
+    }
+
+    private void revalidate(String path, Entry entry) {
+        try {
+            if (entry.kind == Kind.FILE) {
+                SafenetFile safenetFile = singleFlight.getFileAttributes(path);
+                replace(path, entry, new Entry(Kind.FILE, new SafenetBasicFileAttributes(safenetFile)));
+            } else {
+                // The root normalizes to an empty path
+                SafenetDirectory safenetDirectory = singleFlight.getDirectory(path.isEmpty() ? "/" : path);
+                revalidateListing(path, entry, safenetDirectory);
+            }
+        } catch (HystrixRuntimeException | SafenetBadRequestException e) {
+            // The path is no longer known to be what the snapshot says, so resolve it again on next use
+            synchronized (this) {
+                if (entries.get(path) == entry) entries.remove(path);
+            }
+        }
+    }
+
+    private synchronized void replace(String path, Entry expected, Entry entry) {
+        if (entries.get(path) == expected) entries.put(path, entry);
+    }
+
+    /**
+     * Replaces a directory entry with its fresh listing. Children whose kind and modified time are
+     * unchanged are kept, along with anything already known about them such as a file size or a
+     * listing, and children which are no longer listed are dropped.
+     */
+    private synchronized void revalidateListing(String path, Entry entry, SafenetDirectory safenetDirectory) {
+        if (entries.get(path) != entry) return;
+
+        String childPrefix = entry.childPrefix != null ? entry.childPrefix : getChildPrefix(path);
+        Set<String> listedPaths = new HashSet<>();
+        Map<String, Entry> unchanged = new LinkedHashMap<>();
+        addChildren(childPrefix, safenetDirectory.getSubDirectories(), Kind.DIRECTORY, listedPaths, unchanged);
+        addChildren(childPrefix, safenetDirectory.getFiles(), Kind.FILE, listedPaths, unchanged);
+
+        if (entry.listing != null) {
+            removeUnlisted(childPrefix, entry.listing.getSubDirectories(), listedPaths);
+            removeUnlisted(childPrefix, entry.listing.getFiles(), listedPaths);
+        }
+
+        // Seed every child from the listing, then put back the unchanged ones as they were
+        putListing(path, childPrefix, safenetDirectory, singleFlight);
+        entries.putAll(unchanged);
+    }
+
+    private void addChildren(String childPrefix, List<Info> children, Kind kind, Set<String> listedPaths, Map<String, Entry> unchanged) {
+        if (children == null) return;
+
+        for (Info info : children) {
+            String childPath = childPrefix + info.getName();
+            listedPaths.add(childPath);
+
+            Entry child = entries.get(childPath);
+            if (child != null && child.kind == kind
+                    && child.attributes.lastModifiedTime().to(TimeUnit.SECONDS) == info.getModifiedOn()) {
+                child.unverified = false;
+                unchanged.put(childPath, child);
+            }
+        }
+    }
+
+    private void removeUnlisted(String childPrefix, List<Info> children, Set<String> listedPaths) {
+        if (children == null) return;
+
+        for (Info info : children) {
+            String childPath = childPrefix + info.getName();
+            if (!listedPaths.contains(childPath)) entries.remove(childPath);
+        }
+    }
+
+    private static String getChildPrefix(String directoryPath) {
+        // The root normalizes to an empty path, but its children start with the separator
+        if (directoryPath.isEmpty()) return "/";
+        return directoryPath.endsWith("/") ? directoryPath : directoryPath + "/";
+    }
+
+    static class Entry {
+        private final Kind kind;
+        private final SafenetBasicFileAttributes attributes;
+        private final SafenetDirectory listing;
+        private final String childPrefix;
+        private final long createdAt = System.nanoTime();
+
+        private boolean unverified;
+
+        private Entry(Kind kind, SafenetBasicFileAttributes attributes) {
+            this(kind, attributes, null, null);
+        }
+
+        /**
+         * Creates an entry, with the listing of a directory which has been listed.
+         */
+        Entry(Kind kind, SafenetBasicFileAttributes attributes, SafenetDirectory listing, String childPrefix) {
+            this.kind = kind;
+            this.attributes = attributes;
+            this.listing = listing;
+            this.childPrefix = childPrefix;
+        }
+
+        Kind getKind() {
+            return kind;
+        }
+
+        SafenetBasicFileAttributes getAttributes() {
+            return attributes;
+        }
+
+        /**
+         * Returns the directory listing, or null if the entry is not a listed directory.
+         */
+        SafenetDirectory getListing() {
+            return listing;
+        }
+
+        /**
+         * Returns the string each child name of the listing is appended to.
+         */
+        String getChildPrefix() {
+            return childPrefix;
+        }
+    }
+}
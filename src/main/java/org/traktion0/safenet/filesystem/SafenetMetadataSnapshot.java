@@ -0,0 +1,172 @@
+package org.traktion0.safenet.filesystem;
+
+import org.traktion0.safenet.client.beans.Info;
+import org.traktion0.safenet.client.beans.SafenetDirectory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Saves the metadata cache to a local file, and loads it back into the cache of a new file system.
+ *
+ * The snapshot holds every file and directory entry, with the listings of listed directories, in a
+ * compressed binary form. Loaded entries are unverified, so each is revalidated against the launcher
+ * on first use. A snapshot which is missing, unreadable or from another version is ignored, and the
+ * file system starts with an empty cache.
+ */
+final class SafenetMetadataSnapshot {
+
+    private static final int MAGIC = 0x53464d53;
+    private static final int VERSION = 1;
+
+    private SafenetMetadataSnapshot() {
+    }
+
+    static void save(Path file, SafenetMetadataCache metadataCache) throws IOException {
+        Map<String, SafenetMetadataCache.Entry> entries = metadataCache.getEntries();
+
+        Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), "metadata", ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new GZIPOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tempFile))))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(entries.size());
+                for (Map.Entry<String, SafenetMetadataCache.Entry> entry : entries.entrySet()) {
+                    writeEntry(output, entry.getKey(), entry.getValue());
+                }
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    static void load(Path file, SafenetMetadataCache metadataCache, SafenetSingleFlight singleFlight) {
+        try (DataInputStream input = new DataInputStream(new GZIPInputStream(
+                new BufferedInputStream(Files.newInputStream(file))))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) return;
+
+            // Read the whole snapshot before adding any of it, so a damaged snapshot adds nothing
+            int count = input.readInt();
+            List<String> paths = new ArrayList<>();
+            List<SafenetMetadataCache.Entry> entries = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String path = input.readUTF();
+                paths.add(path);
+                entries.add(readEntry(input, path, singleFlight));
+            }
+
+            for (int i = 0; i < count; i++) {
+                metadataCache.putUnverified(paths.get(i), entries.get(i));
+            }
+        } catch (NoSuchFileException e) {
+            // No snapshot has been saved yet
+        } catch (IOException e) {
+            // The snapshot is only a head start, so carry on without it
+        }
+    }
+
+    private static void writeEntry(DataOutputStream output, String path, SafenetMetadataCache.Entry entry) throws IOException {
+        SafenetBasicFileAttributes attributes = entry.getAttributes();
+        boolean isDirectory = entry.getKind() == SafenetMetadataCache.Kind.DIRECTORY;
+
+        output.writeUTF(path);
+        output.writeBoolean(isDirectory);
+        output.writeLong(attributes.lastModifiedTime().toMillis());
+        output.writeLong(attributes.creationTime().toMillis());
+        if (attributes instanceof SafenetListedFileAttributes) {
+            output.writeLong(((SafenetListedFileAttributes) attributes).getLoadedSize());
+        } else {
+            output.writeLong(attributes.size());
+        }
+
+        if (isDirectory) {
+            SafenetDirectory listing = entry.getListing();
+            output.writeBoolean(listing != null);
+            if (listing != null) {
+                output.writeUTF(entry.getChildPrefix());
+                writeInfo(output, listing.getInfo());
+                writeInfos(output, listing.getSubDirectories());
+                writeInfos(output, listing.getFiles());
+            }
+        }
+    }
+
+    private static SafenetMetadataCache.Entry readEntry(DataInputStream input, String path, SafenetSingleFlight singleFlight) throws IOException {
+        boolean isDirectory = input.readBoolean();
+        FileTime lastModifiedTime = FileTime.fromMillis(input.readLong());
+        FileTime creationTime = FileTime.fromMillis(input.readLong());
+        long size = input.readLong();
+
+        if (!isDirectory) {
+            SafenetBasicFileAttributes attributes = size >= 0
+                    ? new SafenetBasicFileAttributes(lastModifiedTime, creationTime, size, false)
+                    : new SafenetListedFileAttributes(lastModifiedTime, creationTime, singleFlight, path);
+            return new SafenetMetadataCache.Entry(SafenetMetadataCache.Kind.FILE, attributes, null, null);
+        }
+
+        SafenetBasicFileAttributes attributes = new SafenetBasicFileAttributes(lastModifiedTime, creationTime, 0, true);
+        if (!input.readBoolean()) {
+            return new SafenetMetadataCache.Entry(SafenetMetadataCache.Kind.DIRECTORY, attributes, null, null);
+        }
+
+        String childPrefix = input.readUTF();
+        SafenetDirectory listing = new SafenetDirectory();
+        listing.setInfo(readInfo(input));
+        listing.setSubDirectories(readInfos(input));
+        listing.setFiles(readInfos(input));
+        return new SafenetMetadataCache.Entry(SafenetMetadataCache.Kind.DIRECTORY, attributes, listing, childPrefix);
+    }
+
+    private static void writeInfos(DataOutputStream output, List<Info> infos) throws IOException {
+        if (infos == null) {
+            output.writeInt(-1);
+            return;
+        }
+
+        output.writeInt(infos.size());
+        for (Info info : infos) {
+            writeInfo(output, info);
+        }
+    }
+
+    private static List<Info> readInfos(DataInputStream input) throws IOException {
+        int count = input.readInt();
+        if (count < 0) return null;
+
+        List<Info> infos = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            infos.add(readInfo(input));
+        }
+        return infos;
+    }
+
+    private static void writeInfo(DataOutputStream output, Info info) throws IOException {
+        output.writeBoolean(info.getName() != null);
+        if (info.getName() != null) output.writeUTF(info.getName());
+        output.writeLong(info.getCreatedOn());
+        output.writeLong(info.getModifiedOn());
+    }
+
+    private static Info readInfo(DataInputStream input) throws IOException {
+        Info info = new Info();
+        if (input.readBoolean()) info.setName(input.readUTF());
+        info.setCreatedOn(input.readLong());
+        info.setModifiedOn(input.readLong());
+        return info;
+    }
+}
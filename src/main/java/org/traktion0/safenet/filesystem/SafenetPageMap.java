@@ -0,0 +1,190 @@
+package org.traktion0.safenet.filesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sparse set of fixed size pages written over the content of a file.
+ *
+ * Writing part of a page which has not been written before first loads the page from the underlying
+ * content, so every page held is complete. Pages are kept on the heap until they exceed the memory
+ * threshold, after which they are all moved into a sparse temporary file at their file offsets.
+ * Closing the page map deletes the temporary file.
+ */
+class SafenetPageMap implements Closeable {
+
+    /**
+     * Fills a page with the underlying content at that page, leaving any bytes past the end of that
+     * content as zeros.
+     */
+    interface PageLoader {
+        void load(long pageIndex, ByteBuffer page) throws IOException;
+    }
+
+    private final int pageSize;
+    private final long memoryThreshold;
+    private final PageLoader pageLoader;
+    private final Map<Long, byte[]> memoryPages = new HashMap<>();
+    private final Set<Long> filePages = new HashSet<>();
+
+    private Path tempFile;
+    private FileChannel fileChannel;
+    private long size;
+
+    SafenetPageMap(int pageSize, long memoryThreshold, long size, PageLoader pageLoader) {
+        this.pageSize = pageSize;
+        this.memoryThreshold = memoryThreshold;
+        this.size = size;
+        this.pageLoader = pageLoader;
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    long size() {
+        return size;
+    }
+
+    boolean contains(long pageIndex) {
+        return memoryPages.containsKey(pageIndex) || filePages.contains(pageIndex);
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer at the position, growing the size if it writes past
+     * the end.
+     *
+     * @return the number of bytes written
+     */
+    int write(ByteBuffer byteBuffer, long position) throws IOException {
+        int length = byteBuffer.remaining();
+        int limit = byteBuffer.limit();
+        long writePosition = position;
+
+        try {
+            while (byteBuffer.position() < limit) {
+                long pageIndex = writePosition / pageSize;
+                int pageOffset = (int) (writePosition - pageIndex * pageSize);
+                int pageLength = Math.min(limit - byteBuffer.position(), pageSize - pageOffset);
+
+                byteBuffer.limit(byteBuffer.position() + pageLength);
+                writePage(pageIndex, pageOffset, byteBuffer);
+                writePosition += pageLength;
+            }
+        } finally {
+            byteBuffer.limit(limit);
+        }
+
+        size = Math.max(size, writePosition);
+        return length;
+    }
+
+    /**
+     * Copies bytes of a written page into the buffer, from the position up to the end of that page
+     * or the end of the buffer.
+     *
+     * @return the number of bytes copied, or -1 if the page has not been written
+     */
+    int read(ByteBuffer byteBuffer, long position) throws IOException {
+        long pageIndex = position / pageSize;
+        int pageOffset = (int) (position - pageIndex * pageSize);
+        int length = Math.min(byteBuffer.remaining(), pageSize - pageOffset);
+
+        byte[] page = memoryPages.get(pageIndex);
+        if (page != null) {
+            byteBuffer.put(page, pageOffset, length);
+            return length;
+        }
+        if (!filePages.contains(pageIndex)) return -1;
+
+        int limit = byteBuffer.limit();
+        byteBuffer.limit(byteBuffer.position() + length);
+        try {
+            long readPosition = position;
+            while (byteBuffer.hasRemaining()) {
+                int bytesRead = fileChannel.read(byteBuffer, readPosition);
+                if (bytesRead < 0) throw new IOException("Page file '" + tempFile + "' truncated.");
+                readPosition += bytesRead;
+            }
+        } finally {
+            byteBuffer.limit(limit);
+        }
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        memoryPages.clear();
+        filePages.clear();
+        if (fileChannel != null) {
+            try {
+                fileChannel.close();
+            } finally {
+                fileChannel = null;
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    private void writePage(long pageIndex, int pageOffset, ByteBuffer byteBuffer) throws IOException {
+        if (!contains(pageIndex)) {
+            byte[] page = new byte[pageSize];
+            // A page which is overwritten completely does not need its previous content
+            if (pageOffset != 0 || byteBuffer.remaining() != pageSize) {
+                pageLoader.load(pageIndex, ByteBuffer.wrap(page));
+            }
+            addPage(pageIndex, page);
+        }
+
+        byte[] page = memoryPages.get(pageIndex);
+        if (page != null) {
+            byteBuffer.get(page, pageOffset, byteBuffer.remaining());
+        } else {
+            long filePosition = pageIndex * pageSize + pageOffset;
+            while (byteBuffer.hasRemaining()) {
+                filePosition += fileChannel.write(byteBuffer, filePosition);
+            }
+        }
+    }
+
+    private void addPage(long pageIndex, byte[] page) throws IOException {
+        if (fileChannel == null && (long) (memoryPages.size() + 1) * pageSize > memoryThreshold) {
+            spill();
+        }
+
+        if (fileChannel == null) {
+            memoryPages.put(pageIndex, page);
+        } else {
+            writeToFile(pageIndex, page);
+            filePages.add(pageIndex);
+        }
+    }
+
+    private void spill() throws IOException {
+        tempFile = Files.createTempFile("safenet-pages", ".tmp");
+        fileChannel = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        for (Map.Entry<Long, byte[]> entry : memoryPages.entrySet()) {
+            writeToFile(entry.getKey(), entry.getValue());
+            filePages.add(entry.getKey());
+        }
+        memoryPages.clear();
+    }
+
+    private void writeToFile(long pageIndex, byte[] page) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(page);
+        long filePosition = pageIndex * pageSize;
+        while (byteBuffer.hasRemaining()) {
+            filePosition += fileChannel.write(byteBuffer, filePosition);
+        }
+    }
+}
@@ -1,28 +1,131 @@
 package org.traktion0.safenet.filesystem;
 
-import org.apache.commons.lang.StringUtils;
-
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.*;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
  * Created by paul on 05/09/16.
+ *
+ * The path string is split into names once, when the path is created, and kept as the begin and end
+ * offsets of each name. Empty names, from repeated or trailing separators, are skipped. Paths derived
+ * from this one reuse its offsets rather than splitting their own strings again, and the URI is only
+ * built when asked for.
+ *
+ * Normalizing and resolving work over those names in a single pass, and the normal form of a path is
+ * remembered, so a path which is already normal is returned as it is.
  */
 public class SafenetPath implements Path {
 
+    private static final int[] NO_OFFSETS = new int[0];
+
     private final FileSystem fileSystem;
-    private final URI uri;
+    private final String path;
+    // Begin and end offset of each name in path, in pairs; may be longer than the names when shared
+    private final int[] offsets;
+    private final int nameCount;
+    // Set on canonical instances from the file system's path interner, which keep their parent
+    private final boolean interned;
+    private final SafenetPath parent;
+
+    private volatile URI uri;
+    private int hash;
+    // This path in normal form, once worked out; this path itself if it is already normal
+    private SafenetPath normalized;
 
     public SafenetPath(FileSystem fileSystem, URI uri)
     {
         this.fileSystem = fileSystem;
         this.uri = uri;
+        this.path = uri.getPath();
+        this.offsets = parseOffsets(path, getSeparatorChar(fileSystem));
+        this.nameCount = offsets.length / 2;
+        this.interned = false;
+        this.parent = null;
+    }
+
+    /**
+     * Creates a path from an already resolved path string. Characters which are not legal in a URI
+     * are quoted when the URI is built, rather than rejected.
+     */
+    SafenetPath(FileSystem fileSystem, String pathString)
+    {
+        this.fileSystem = fileSystem;
+        this.path = pathString;
+        this.offsets = parseOffsets(path, getSeparatorChar(fileSystem));
+        this.nameCount = offsets.length / 2;
+        this.interned = false;
+        this.parent = null;
+    }
+
+    private SafenetPath(FileSystem fileSystem, String pathString, int[] offsets, int nameCount)
+    {
+        this(fileSystem, pathString, offsets, nameCount, false, null);
+    }
+
+    private SafenetPath(FileSystem fileSystem, String pathString, int[] offsets, int nameCount, boolean interned, SafenetPath parent)
+    {
+        this.fileSystem = fileSystem;
+        this.path = pathString;
+        this.offsets = offsets;
+        this.nameCount = nameCount;
+        this.interned = interned;
+        this.parent = parent;
+    }
+
+    /**
+     * Creates the canonical instance of a child of a canonical path, or of a top level name when the
+     * parent is null. Only the path interner makes these.
+     */
+    static SafenetPath newInterned(FileSystem fileSystem, SafenetPath parent, boolean absolute, String name) {
+        char separator = getSeparatorChar(fileSystem);
+        StringBuilder child = new StringBuilder();
+        int[] childOffsets;
+        if (parent != null) {
+            child.append(parent.path).append(separator);
+            childOffsets = Arrays.copyOf(parent.offsets, parent.nameCount * 2 + 2);
+        } else {
+            if (absolute) child.append(separator);
+            childOffsets = new int[2];
+        }
+        int nameCount = parent != null ? parent.nameCount + 1 : 1;
+        childOffsets[nameCount * 2 - 2] = child.length();
+        child.append(name);
+        childOffsets[nameCount * 2 - 1] = child.length();
+
+        SafenetPath internedPath = new SafenetPath(fileSystem, child.toString(), childOffsets, nameCount, true, parent);
+        internedPath.normalized = internedPath;
+        return internedPath;
+    }
+
+    /**
+     * Returns the path to the named child of this path, sharing this path's offsets instead of
+     * splitting the child's string again.
+     */
+    SafenetPath resolveChild(String name) {
+        if (name.isEmpty() || name.indexOf(getSeparatorChar(fileSystem)) != -1) {
+            return (SafenetPath) resolve(new SafenetPath(fileSystem, name));
+        }
+        SafenetPathInterner interner = getPathInterner();
+        if (interner != null && interned && isDotName(name, 0, name.length()) == 0) {
+            return interner.internChild(this, isAbsolute(), name);
+        }
+
+        StringBuilder child = new StringBuilder(path.length() + 1 + name.length()).append(path);
+        if (!path.isEmpty() && path.charAt(path.length() - 1) != getSeparatorChar(fileSystem)) {
+            child.append(getSeparatorChar(fileSystem));
+        }
+        int[] childOffsets = Arrays.copyOf(offsets, nameCount * 2 + 2);
+        childOffsets[nameCount * 2] = child.length();
+        child.append(name);
+        childOffsets[nameCount * 2 + 1] = child.length();
+
+        return intern(new SafenetPath(fileSystem, child.toString(), childOffsets, nameCount + 1));
     }
 
     @Override
@@ -32,147 +135,138 @@ public class SafenetPath implements Path {
 
     @Override
     public boolean isAbsolute() {
-        return toString().substring(0,1).equals(fileSystem.getSeparator());
+        return !path.isEmpty() && path.charAt(0) == getSeparatorChar(fileSystem);
     }
 
     @Override
     public Path getRoot() {
-        return new SafenetPath(fileSystem, URI.create(fileSystem.getSeparator()));
+        return new SafenetPath(fileSystem, fileSystem.getSeparator());
     }
 
     @Override
     public Path getFileName() {
-        String pathString = StringUtils.stripEnd(uri.getPath(), fileSystem.getSeparator());
-        URI fileUri;
-        if (pathString.contains(fileSystem.getSeparator())) {
-            fileUri = URI.create(pathString.substring(pathString.lastIndexOf(fileSystem.getSeparator())+1));
-        } else {
-            fileUri = URI.create(pathString);
-        }
+        if (nameCount == 0) return new SafenetPath(fileSystem, "", NO_OFFSETS, 0);
 
-        return new SafenetPath(fileSystem, fileUri);
+        return getName(nameCount - 1);
     }
 
     @Override
     public Path getParent() {
-        String pathString = StringUtils.stripEnd(uri.getPath(), fileSystem.getSeparator());
-        int toPos = pathString.lastIndexOf(fileSystem.getSeparator());
-
-        if (toPos != -1 && toPos != 0) {
-            URI fileUri = URI.create(pathString.substring(0, toPos));
-            return new SafenetPath(fileSystem, fileUri);
-        }
+        if (nameCount < 2) return null;
+        if (interned) return parent;
 
-        return null;
+        // The parent's names are the first of this path's names, so its offsets are shared as they are
+        return new SafenetPath(fileSystem, path.substring(0, offsets[nameCount * 2 - 3]), offsets, nameCount - 1);
     }
 
     @Override
     public int getNameCount() {
-        return getNameParts().length;
+        return nameCount;
     }
 
-    private String[] getNameParts() {
-        return StringUtils.split(uri.getPath(), fileSystem.getSeparator());
+    String getNameString(int i) {
+        return path.substring(offsets[i * 2], offsets[i * 2 + 1]);
     }
 
     @Override
     public Path getName(int i) {
-        int nameCount = getNameCount();
-        if (i < 0 || i > nameCount) throw new IllegalArgumentException("getName index out of range: " + nameCount);
-
-        String[] nameParts = getNameParts();
-        URI nameUri = URI.create(nameParts[i]);
+        if (i < 0 || i >= nameCount) throw new IllegalArgumentException("getName index out of range: " + nameCount);
 
-        return new SafenetPath(fileSystem, nameUri);
+        String name = getNameString(i);
+        return new SafenetPath(fileSystem, name, new int[] {0, name.length()}, 1);
     }
 
     @Override
     public Path subpath(int fromIndex, int toIndex) {
-        int nameCount = getNameCount();
         if (fromIndex < 0 || fromIndex > nameCount) throw new IllegalArgumentException("getName from index out of range: " + fromIndex);
         if (toIndex < 0 || toIndex > nameCount) throw new IllegalArgumentException("getName to index out of range: " + toIndex);
         if (fromIndex > toIndex) throw new IllegalArgumentException("getName indexes out of order: " + fromIndex + " > " + toIndex);
 
-        String[] nameParts = getNameParts();
-        String subpathFragment = "";
+        char separator = getSeparatorChar(fileSystem);
+        StringBuilder subpath = new StringBuilder();
+        int[] subpathOffsets = new int[(toIndex - fromIndex) * 2];
         for (int i=fromIndex; i<toIndex; i++) {
-            subpathFragment += nameParts[i] + fileSystem.getSeparator();
+            if (i > fromIndex) subpath.append(separator);
+            subpathOffsets[(i - fromIndex) * 2] = subpath.length();
+            subpath.append(path, offsets[i * 2], offsets[i * 2 + 1]);
+            subpathOffsets[(i - fromIndex) * 2 + 1] = subpath.length();
         }
-        subpathFragment = StringUtils.stripEnd(subpathFragment, fileSystem.getSeparator());
-        URI subpathUri = URI.create(subpathFragment);
 
-        return new SafenetPath(fileSystem, subpathUri);
+        return new SafenetPath(fileSystem, subpath.toString(), subpathOffsets, toIndex - fromIndex);
     }
 
+    /**
+     * Returns true if the path's names are the first names of this path, and both are absolute or
+     * both relative. Names are compared whole, so "/ab" does not start with "/a".
+     */
     @Override
     public boolean startsWith(Path path) {
-        return toString().startsWith(path.toString());
+        if (!(path instanceof SafenetPath)) return false;
+
+        SafenetPath other = (SafenetPath) path;
+        if (fileSystem != other.fileSystem || isAbsolute() != other.isAbsolute() || other.nameCount > nameCount) return false;
+        // An empty relative path only starts an empty path
+        if (other.nameCount == 0) return other.isAbsolute() || nameCount == 0;
+
+        for (int i=0; i<other.nameCount; i++) {
+            if (!nameEquals(i, other, i)) return false;
+        }
+        return true;
     }
 
     @Override
     public boolean startsWith(String s) {
-        return toString().startsWith(s);
+        return startsWith(new SafenetPath(fileSystem, s));
     }
 
+    /**
+     * Returns true if the path's names are the last names of this path. An absolute path only ends
+     * this path if the two are equal. Names are compared whole, so "/ab" does not end with "b".
+     */
     @Override
     public boolean endsWith(Path path) {
-        return toString().endsWith(path.toString());
+        if (!(path instanceof SafenetPath)) return false;
+
+        SafenetPath other = (SafenetPath) path;
+        if (fileSystem != other.fileSystem) return false;
+        if (other.isAbsolute()) return equals(other);
+        // An empty relative path only ends an empty path
+        if (other.nameCount == 0) return nameCount == 0 && !isAbsolute();
+        if (other.nameCount > nameCount) return false;
+
+        int offset = nameCount - other.nameCount;
+        for (int i=0; i<other.nameCount; i++) {
+            if (!nameEquals(offset + i, other, i)) return false;
+        }
+        return true;
     }
 
     @Override
     public boolean endsWith(String s) {
-        return toString().endsWith(s);
+        return endsWith(new SafenetPath(fileSystem, s));
     }
 
     @Override
     public Path normalize() {
-        String[] nameParts = getNameParts();
-        Deque<String> newNameParts = new ArrayDeque<>();
-        for (String part: nameParts) {
-            if (part.equals("") && newNameParts.size() > 0) {
-                newNameParts.removeLast();
-            } if (part.equals("..")) {
-                if (newNameParts.size() > 0) {
-                    newNameParts.removeLast();
-                }
-            } else {
-                newNameParts.add(part);
-            }
+        SafenetPath normalizedPath = normalized;
+        if (normalizedPath == null) {
+            normalizedPath = isNormal() ? this : join(isAbsolute(), this, null);
+            normalized = normalizedPath;
         }
-
-        String separator = fileSystem.getSeparator();
-        String pathFragment = "";
-        for (String part: newNameParts) {
-            if (pathFragment.length() > 0 || isAbsolute()) {
-                pathFragment += separator;
-            }
-            pathFragment += part;
-        }
-
-        // PG: Remove superfluous "./" strings
-        pathFragment = StringUtils.replace(pathFragment, "." + separator, "");
-
-        URI normalizedUri = URI.create(pathFragment);
-
-        return new SafenetPath(fileSystem, normalizedUri);
+        return normalizedPath;
     }
 
     @Override
     public Path resolve(Path otherPath) {
         if (otherPath.isAbsolute()) return otherPath.normalize();
 
-        String pathPrefix;
-        if (!uri.getPath().equals(fileSystem.getSeparator())) {
-            pathPrefix = uri.getPath() + fileSystem.getSeparator();
-        } else {
-            pathPrefix = fileSystem.getSeparator();
-        }
-        return new SafenetPath(fileSystem, URI.create(pathPrefix + otherPath.toString())).normalize();
+        // The root normalizes to an empty path, so other paths resolve against an empty path as the root
+        return join(isAbsolute() || path.isEmpty(), this, toSafenetPath(otherPath));
     }
 
     @Override
     public Path resolve(String otherPathString) {
-        Path otherPath = new SafenetPath(fileSystem, URI.create(otherPathString));
+        Path otherPath = new SafenetPath(fileSystem, otherPathString);
 
         return resolve(otherPath);
     }
@@ -182,12 +276,12 @@ public class SafenetPath implements Path {
         Path parent = getParent();
         if (otherPath.isAbsolute() || parent == null) return otherPath.normalize();
 
-        return new SafenetPath(fileSystem, URI.create(parent.toString() + fileSystem.getSeparator() + otherPath.toString())).normalize();
+        return join(isAbsolute(), (SafenetPath) parent, toSafenetPath(otherPath));
     }
 
     @Override
     public Path resolveSibling(String otherPathString) {
-        Path otherPath = new SafenetPath(fileSystem, URI.create(otherPathString));
+        Path otherPath = new SafenetPath(fileSystem, otherPathString);
 
         return resolveSibling(otherPath);
     }
@@ -199,23 +293,46 @@ public class SafenetPath implements Path {
             throw new IllegalArgumentException("Other path is not a Path that can be relativized against this path");
         }
 
-        String firstString = normalize().toString();
-        String secondString = otherPath.normalize().toString();
+        SafenetPath first = (SafenetPath) normalize();
+        SafenetPath second = toSafenetPath(otherPath.normalize());
 
-        if (secondString.length() < firstString.length()) {
-            String tempString = secondString;
-            secondString = firstString;
-            firstString = tempString;
+        int common = 0;
+        while (common < first.nameCount && common < second.nameCount && first.nameEquals(common, second, common)) {
+            common++;
         }
 
-        String differentPart = StringUtils.difference(firstString, secondString).substring(1);
+        // Step up out of the names this path does not share, then down into the other path's names
+        char separator = getSeparatorChar(fileSystem);
+        int relativeCount = first.nameCount - common + second.nameCount - common;
+        StringBuilder relativePath = new StringBuilder();
+        int[] relativeOffsets = new int[relativeCount * 2];
+        for (int i=0; i<relativeCount; i++) {
+            if (i > 0) relativePath.append(separator);
+            relativeOffsets[i * 2] = relativePath.length();
+            if (i < first.nameCount - common) {
+                relativePath.append("..");
+            } else {
+                int name = common + i - (first.nameCount - common);
+                relativePath.append(second.path, second.offsets[name * 2], second.offsets[name * 2 + 1]);
+            }
+            relativeOffsets[i * 2 + 1] = relativePath.length();
+        }
 
-        return new SafenetPath(fileSystem, URI.create(differentPart));
+        return new SafenetPath(fileSystem, relativePath.toString(), relativeOffsets, relativeCount);
     }
 
     @Override
     public URI toUri() {
-        return uri;
+        URI currentUri = uri;
+        if (currentUri == null) {
+            try {
+                currentUri = new URI(null, null, path, null);
+            } catch (URISyntaxException e) {
+                throw new InvalidPathException(path, e.getReason());
+            }
+            uri = currentUri;
+        }
+        return currentUri;
     }
 
     @Override
@@ -224,7 +341,7 @@ public class SafenetPath implements Path {
             return this;
         } else {
             // PG:ASSERT: There is no default directory - assume everything is relative to root
-            return new SafenetPath(fileSystem, URI.create(fileSystem.getSeparator() + toString())).normalize();
+            return join(true, this, null);
         }
     }
 
@@ -252,22 +369,19 @@ public class SafenetPath implements Path {
     public Iterator<Path> iterator()
     {
         return new Iterator<Path>() {
-            private final String[] pathParts = getNameParts();
             private int pos = 0;
 
             @Override
             public boolean hasNext() {
-                return pos < getNameCount();
+                return pos < nameCount;
             }
 
             @Override
             public Path next() {
-                if (pos >= getNameCount()) {
+                if (pos >= nameCount) {
                     throw new NoSuchElementException();
                 }
-                URI uri = URI.create(pathParts[pos]);
-                pos++;
-                return new SafenetPath(fileSystem, uri);
+                return getName(pos++);
             }
 
             @Override
@@ -277,14 +391,200 @@ public class SafenetPath implements Path {
         };
     }
 
+    /**
+     * Orders relative paths before absolute ones, then by their names in turn, so that paths which
+     * are equal compare as 0 whatever separators they were written with.
+     */
     @Override
     public int compareTo(Path path) {
-        return toString().compareTo(path.toString());
+        SafenetPath other = (SafenetPath) path;
+        if (isAbsolute() != other.isAbsolute()) return isAbsolute() ? 1 : -1;
+
+        int names = Math.min(nameCount, other.nameCount);
+        for (int i=0; i<names; i++) {
+            int comparison = compareName(i, other, i);
+            if (comparison != 0) return comparison;
+        }
+        return nameCount - other.nameCount;
+    }
+
+    /**
+     * Paths are equal when they are both absolute or both relative and have the same names, so
+     * repeated and trailing separators make no difference.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SafenetPath)) return false;
+
+        SafenetPath other = (SafenetPath) o;
+        // There is only one canonical instance of each path, so two different ones are never equal
+        if (interned && other.interned) return false;
+        if (fileSystem != other.fileSystem || nameCount != other.nameCount || isAbsolute() != other.isAbsolute()) return false;
+        if (hash != 0 && other.hash != 0 && hash != other.hash) return false;
+
+        for (int i=0; i<nameCount; i++) {
+            if (!nameEquals(i, other, i)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = isAbsolute() ? 1 : 0;
+            for (int i=0; i<nameCount; i++) {
+                h = 31 * h + '/';
+                for (int j=offsets[i * 2]; j<offsets[i * 2 + 1]; j++) {
+                    h = 31 * h + path.charAt(j);
+                }
+            }
+            hash = h;
+        }
+        return h;
     }
 
     @Override
     public String toString() {
-        return uri.getPath();
+        return path;
+    }
+
+    private int compareName(int i, SafenetPath other, int j) {
+        int length = offsets[i * 2 + 1] - offsets[i * 2];
+        int otherLength = other.offsets[j * 2 + 1] - other.offsets[j * 2];
+        for (int k=0; k<Math.min(length, otherLength); k++) {
+            char c = path.charAt(offsets[i * 2] + k);
+            char otherC = other.path.charAt(other.offsets[j * 2] + k);
+            if (c != otherC) return c - otherC;
+        }
+        return length - otherLength;
+    }
+
+    private boolean nameEquals(int i, SafenetPath other, int j) {
+        int length = offsets[i * 2 + 1] - offsets[i * 2];
+        return length == other.offsets[j * 2 + 1] - other.offsets[j * 2]
+                && path.regionMatches(offsets[i * 2], other.path, other.offsets[j * 2], length);
+    }
+
+    /**
+     * Returns true if the path string is already in normal form: names joined by single separators,
+     * with no trailing separator and no "." or ".." names.
+     */
+    boolean isNormal() {
+        if (nameCount == 0) return path.isEmpty();
+
+        int length = (isAbsolute() ? 1 : 0) + nameCount - 1;
+        for (int i=0; i<nameCount; i++) {
+            if (isDotName(path, offsets[i * 2], offsets[i * 2 + 1]) != 0) return false;
+            length += offsets[i * 2 + 1] - offsets[i * 2];
+        }
+        return length == path.length();
+    }
+
+    /**
+     * Normalizes the names of the first path followed by those of the second, if any, in one pass.
+     * "." names are dropped and ".." drops the name before it. A ".." with nothing before it is
+     * dropped from an absolute path, and kept at the start of a relative one.
+     */
+    private SafenetPath join(boolean absolute, SafenetPath first, SafenetPath second) {
+        int count = first.nameCount + (second != null ? second.nameCount : 0);
+        String[] keptStrings = new String[count];
+        int[] keptOffsets = new int[count * 2];
+        int kept = 0;
+        // Leading ".." names of a relative path, which a later ".." cannot drop
+        int keptParents = 0;
+
+        for (int i=0; i<count; i++) {
+            SafenetPath source = i < first.nameCount ? first : second;
+            int name = i < first.nameCount ? i : i - first.nameCount;
+            int begin = source.offsets[name * 2];
+            int end = source.offsets[name * 2 + 1];
+
+            int dotName = isDotName(source.path, begin, end);
+            if (dotName == 1) continue;
+            if (dotName == 2) {
+                if (kept > keptParents) {
+                    kept--;
+                    continue;
+                }
+                if (absolute) continue;
+                keptParents++;
+            }
+
+            keptStrings[kept] = source.path;
+            keptOffsets[kept * 2] = begin;
+            keptOffsets[kept * 2 + 1] = end;
+            kept++;
+        }
+
+        char separator = getSeparatorChar(fileSystem);
+        StringBuilder joined = new StringBuilder();
+        int[] joinedOffsets = new int[kept * 2];
+        for (int i=0; i<kept; i++) {
+            if (i > 0 || absolute) joined.append(separator);
+            joinedOffsets[i * 2] = joined.length();
+            joined.append(keptStrings[i], keptOffsets[i * 2], keptOffsets[i * 2 + 1]);
+            joinedOffsets[i * 2 + 1] = joined.length();
+        }
+
+        SafenetPath joinedPath = new SafenetPath(fileSystem, joined.toString(), joinedOffsets, kept);
+        joinedPath.normalized = joinedPath;
+        return intern(joinedPath);
+    }
+
+    boolean isInterned() {
+        return interned;
+    }
+
+    private SafenetPath intern(SafenetPath newPath) {
+        SafenetPathInterner interner = getPathInterner();
+        return interner != null ? interner.intern(newPath) : newPath;
+    }
+
+    private SafenetPathInterner getPathInterner() {
+        return fileSystem instanceof SafenetFileSystem ? ((SafenetFileSystem) fileSystem).getPathInterner() : null;
+    }
+
+    private SafenetPath toSafenetPath(Path otherPath) {
+        if (otherPath instanceof SafenetPath) return (SafenetPath) otherPath;
+        return new SafenetPath(fileSystem, otherPath.toString());
+    }
+
+    /**
+     * Returns 1 for a "." name, 2 for a ".." name and 0 for any other name.
+     */
+    private static int isDotName(String path, int begin, int end) {
+        int length = end - begin;
+        if (length == 1 && path.charAt(begin) == '.') return 1;
+        if (length == 2 && path.charAt(begin) == '.' && path.charAt(begin + 1) == '.') return 2;
+        return 0;
+    }
+
+    private static char getSeparatorChar(FileSystem fileSystem) {
+        return fileSystem.getSeparator().charAt(0);
     }
-}
 
+    private static int[] parseOffsets(String path, char separator) {
+        int count = 0;
+        for (int i=0; i<path.length(); i++) {
+            if (path.charAt(i) != separator && (i == 0 || path.charAt(i - 1) == separator)) count++;
+        }
+        if (count == 0) return NO_OFFSETS;
+
+        int[] offsets = new int[count * 2];
+        int name = 0;
+        int begin = -1;
+        for (int i=0; i<=path.length(); i++) {
+            boolean isSeparator = i == path.length() || path.charAt(i) == separator;
+            if (begin == -1 && !isSeparator) {
+                begin = i;
+            } else if (begin != -1 && isSeparator) {
+                offsets[name++] = begin;
+                offsets[name++] = i;
+                begin = -1;
+            }
+        }
+        return offsets;
+    }
+}
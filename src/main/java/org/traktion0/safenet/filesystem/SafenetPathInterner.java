@@ -0,0 +1,108 @@
+package org.traktion0.safenet.filesystem;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.FileSystem;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per file system table of canonical path instances, so each distinct normal path is held once.
+ *
+ * Paths are hash-consed as a parent path and a name: the canonical instance of a path is found from
+ * the canonical instance of its parent and its last name, and keeps a reference to that parent. Two
+ * canonical paths are equal only if they are the same instance, and a child of a canonical path is
+ * found with a single lookup. The table only holds paths weakly, so paths which are no longer used
+ * anywhere are dropped from it; a path keeps its parents in the table for as long as it is used.
+ */
+class SafenetPathInterner {
+
+    private final FileSystem fileSystem;
+    private final ConcurrentMap<Key, PathReference> paths = new ConcurrentHashMap<>();
+    private final ReferenceQueue<SafenetPath> collected = new ReferenceQueue<>();
+
+    SafenetPathInterner(FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
+    /**
+     * Returns the canonical instance of the path, or the path itself if it is not in normal form,
+     * since a path string which is not normal has to be kept as it was given.
+     */
+    SafenetPath intern(SafenetPath path) {
+        if (path.isInterned() || path.getNameCount() == 0 || !path.isNormal()) return path;
+
+        SafenetPath parent = null;
+        for (int i=0; i<path.getNameCount(); i++) {
+            parent = internChild(parent, path.isAbsolute(), path.getNameString(i));
+        }
+        return parent;
+    }
+
+    /**
+     * Returns the canonical instance of the named child of a canonical path, or of a top level name
+     * when the parent is null.
+     */
+    SafenetPath internChild(SafenetPath parent, boolean absolute, String name) {
+        removeCollected();
+
+        Key key = new Key(parent, parent != null ? parent.isAbsolute() : absolute, name);
+        while (true) {
+            PathReference reference = paths.get(key);
+            SafenetPath path = reference != null ? reference.get() : null;
+            if (path != null) return path;
+
+            SafenetPath newPath = SafenetPath.newInterned(fileSystem, parent, key.absolute, name);
+            PathReference newReference = new PathReference(newPath, key, collected);
+            if (reference == null ? paths.putIfAbsent(key, newReference) == null : paths.replace(key, reference, newReference)) {
+                return newPath;
+            }
+            // Another thread added the path first, so use its instance
+        }
+    }
+
+    private void removeCollected() {
+        PathReference reference;
+        while ((reference = (PathReference) collected.poll()) != null) {
+            paths.remove(reference.key, reference);
+        }
+    }
+
+    private static class Key {
+        private final SafenetPath parent;
+        private final boolean absolute;
+        private final String name;
+        private final int hash;
+
+        private Key(SafenetPath parent, boolean absolute, String name) {
+            this.parent = parent;
+            this.absolute = absolute;
+            this.name = name;
+            // Parents are canonical, so they are compared by identity
+            this.hash = 31 * (parent != null ? System.identityHashCode(parent) : (absolute ? 1 : 0)) + name.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key other = (Key) o;
+            return parent == other.parent && absolute == other.absolute && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class PathReference extends WeakReference<SafenetPath> {
+        private final Key key;
+
+        private PathReference(SafenetPath path, Key key, ReferenceQueue<SafenetPath> queue) {
+            super(path, queue);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package org.traktion0.safenet.filesystem;
+
+import java.nio.file.PathMatcher;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiles "glob:" and "regex:" patterns into path matchers, and keeps the most recently used ones.
+ *
+ * A pattern is compiled once, when the matcher is asked for, so matching a path is only a run of the
+ * compiled pattern against the path string. Globs follow the {@link java.nio.file.FileSystem#getPathMatcher}
+ * syntax: "*" and "?" do not cross name separators, "**" does, and "[...]" and "{...,...}" are
+ * supported. Globs which are a plain name, or "*" followed by a plain suffix, such as "*.txt", are
+ * matched by string comparison without a regular expression.
+ */
+class SafenetPathMatchers {
+
+    private static final int MAX_CACHED_MATCHERS = 256;
+    private static final String GLOB_SPECIAL_CHARS = "*?[{\\";
+    private static final String REGEX_SPECIAL_CHARS = "\\^$.|?*+()[]{}";
+
+    private final Map<String, PathMatcher> matchers = new LinkedHashMap<String, PathMatcher>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PathMatcher> eldest) {
+            return size() > MAX_CACHED_MATCHERS;
+        }
+    };
+
+    /**
+     * Returns the matcher for a "syntax:pattern" string, compiling it if it is not cached.
+     *
+     * @throws IllegalArgumentException if the string has no syntax, the syntax is unknown or the pattern is invalid
+     */
+    PathMatcher getPathMatcher(String syntaxAndPattern) {
+        synchronized (matchers) {
+            PathMatcher matcher = matchers.get(syntaxAndPattern);
+            if (matcher != null) return matcher;
+        }
+
+        // Compiling outside the lock may compile a pattern twice, but never holds up other lookups
+        PathMatcher matcher = compile(syntaxAndPattern);
+        synchronized (matchers) {
+            matchers.put(syntaxAndPattern, matcher);
+        }
+        return matcher;
+    }
+
+    private static PathMatcher compile(String syntaxAndPattern) {
+        int delimiter = syntaxAndPattern.indexOf(':');
+        if (delimiter == -1) throw new IllegalArgumentException("Syntax/pattern string must contain ':' delimiter.");
+
+        String syntax = syntaxAndPattern.substring(0, delimiter);
+        String pattern = syntaxAndPattern.substring(delimiter + 1);
+
+        if (syntax.equalsIgnoreCase("regex")) {
+            return toMatcher(Pattern.compile(pattern));
+        } else if (syntax.equalsIgnoreCase("glob")) {
+            if (!containsAny(pattern, 0, GLOB_SPECIAL_CHARS)) {
+                return path -> path.toString().equals(pattern);
+            }
+            if (pattern.length() > 1 && pattern.charAt(0) == '*' && !containsAny(pattern, 1, GLOB_SPECIAL_CHARS)) {
+                String suffix = pattern.substring(1);
+                return path -> {
+                    String pathString = path.toString();
+                    return pathString.endsWith(suffix) && pathString.lastIndexOf('/', pathString.length() - suffix.length() - 1) == -1;
+                };
+            }
+            return toMatcher(Pattern.compile(toRegex(pattern)));
+        }
+        throw new IllegalArgumentException("Invalid syntax - regex or glob required.");
+    }
+
+    private static PathMatcher toMatcher(Pattern pattern) {
+        return path -> pattern.matcher(path.toString()).matches();
+    }
+
+    /**
+     * Translates a glob into an equivalent regular expression.
+     *
+     * @throws PatternSyntaxException if the glob is invalid
+     */
+    static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder("^");
+        boolean inGroup = false;
+
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i++);
+            switch (c) {
+                case '\\':
+                    if (i == glob.length()) throw new PatternSyntaxException("No character to escape", glob, i - 1);
+                    appendLiteral(regex, glob.charAt(i++));
+                    break;
+                case '*':
+                    if (i < glob.length() && glob.charAt(i) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    i = appendClass(regex, glob, i);
+                    break;
+                case '{':
+                    if (inGroup) throw new PatternSyntaxException("Cannot nest groups", glob, i - 1);
+                    regex.append("(?:(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    if (inGroup) {
+                        regex.append("))");
+                        inGroup = false;
+                    } else {
+                        regex.append('}');
+                    }
+                    break;
+                case ',':
+                    if (inGroup) {
+                        regex.append(")|(?:");
+                    } else {
+                        regex.append(',');
+                    }
+                    break;
+                default:
+                    appendLiteral(regex, c);
+            }
+        }
+
+        if (inGroup) throw new PatternSyntaxException("Missing '}'", glob, glob.length() - 1);
+        return regex.append('$').toString();
+    }
+
+    /**
+     * Appends the bracket expression starting after the '[' at position start, and returns the
+     * position after its closing ']'. A class never matches the name separator.
+     */
+    private static int appendClass(StringBuilder regex, String glob, int start) {
+        regex.append("[[^/]&&[");
+
+        int i = start;
+        if (i < glob.length() && glob.charAt(i) == '^') {
+            regex.append("\\^");
+            i++;
+        } else {
+            if (i < glob.length() && glob.charAt(i) == '!') {
+                regex.append('^');
+                i++;
+            }
+            if (i < glob.length() && glob.charAt(i) == '-') {
+                regex.append('-');
+                i++;
+            }
+        }
+
+        boolean hasRangeStart = false;
+        char last = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i++);
+            if (c == ']') {
+                regex.append("]]");
+                return i;
+            }
+            if (c == '/') throw new PatternSyntaxException("Explicit 'name separator' in class", glob, i - 1);
+            if (c == '\\' || c == '[' || c == '&' && i < glob.length() && glob.charAt(i) == '&') {
+                regex.append('\\');
+            }
+            regex.append(c);
+
+            if (c == '-') {
+                if (!hasRangeStart) throw new PatternSyntaxException("Invalid range", glob, i - 1);
+                if (i == glob.length() || glob.charAt(i) == ']') continue;
+                char end = glob.charAt(i++);
+                if (end < last) throw new PatternSyntaxException("Invalid range", glob, i - 3);
+                regex.append(end);
+                hasRangeStart = false;
+            } else {
+                hasRangeStart = true;
+                last = c;
+            }
+        }
+        throw new PatternSyntaxException("Missing ']'", glob, glob.length() - 1);
+    }
+
+    private static void appendLiteral(StringBuilder regex, char c) {
+        if (REGEX_SPECIAL_CHARS.indexOf(c) != -1) regex.append('\\');
+        regex.append(c);
+    }
+
+    private static boolean containsAny(String s, int from, String chars) {
+        for (int i=from; i<s.length(); i++) {
+            if (chars.indexOf(s.charAt(i)) != -1) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,126 @@
+package org.traktion0.safenet.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Sequential read-ahead for a {@link SafenetFileChannel}.
+ *
+ * Once a read starts where the previous one finished, the next <code>depth</code> windows of the file
+ * are requested in the background, so the fetch of window k+1 overlaps the caller consuming window k.
+ * A read anywhere else cancels the in-flight windows and is served directly until the reader becomes
+ * sequential again.
+ */
+class SafenetReadAhead {
+
+    private final SafenetFileChannel channel;
+    private final ExecutorService executorService;
+    private final int window;
+    private final int depth;
+
+    private final Deque<Window> windows = new ArrayDeque<>();
+    private long nextPosition = -1;
+    private long fetchPosition;
+    private boolean endOfFile;
+
+    SafenetReadAhead(SafenetFileChannel channel, ExecutorService executorService, int window, int depth) {
+        this.channel = channel;
+        this.executorService = executorService;
+        this.window = window;
+        this.depth = depth;
+    }
+
+    synchronized int read(ByteBuffer byteBuffer, long fromPosition) throws IOException {
+        if (fromPosition != nextPosition) {
+            reset();
+            return readDirect(byteBuffer, fromPosition);
+        }
+        if (!byteBuffer.hasRemaining()) return 0;
+
+        if (windows.isEmpty() && !endOfFile) {
+            fetchPosition = fromPosition;
+        }
+        fill();
+
+        long position = fromPosition;
+        int totalBytesRead = 0;
+        while (byteBuffer.hasRemaining() && !windows.isEmpty()) {
+            Window head = windows.peekFirst();
+            byte[] data;
+            try {
+                data = head.get();
+            } catch (IOException e) {
+                // Let the direct path decide whether this is EOF or a real failure
+                reset();
+                if (totalBytesRead > 0) break;
+                return readDirect(byteBuffer, position);
+            }
+
+            int offset = (int) (position - head.start);
+            int length = Math.min(byteBuffer.remaining(), data.length - offset);
+            byteBuffer.put(data, offset, length);
+            position += length;
+            totalBytesRead += length;
+
+            if (offset + length == data.length) {
+                windows.removeFirst();
+                if (data.length < window) {
+                    // A short window marks the end of the file, so anything beyond it is wasted
+                    cancelWindows();
+                    endOfFile = true;
+                    break;
+                }
+                fill();
+            }
+        }
+
+        nextPosition = position;
+        if (totalBytesRead == 0 && endOfFile) return -1;
+        return totalBytesRead;
+    }
+
+    synchronized void reset() {
+        cancelWindows();
+        endOfFile = false;
+        nextPosition = -1;
+    }
+
+    private void cancelWindows() {
+        for (Window pending: windows) {
+            pending.future.cancel(true);
+        }
+        windows.clear();
+    }
+
+    private int readDirect(ByteBuffer byteBuffer, long fromPosition) throws IOException {
+        int bytesRead = channel.read(byteBuffer, fromPosition);
+        nextPosition = fromPosition + Math.max(bytesRead, 0);
+        return bytesRead;
+    }
+
+    private void fill() {
+        while (windows.size() < depth && !endOfFile) {
+            long start = fetchPosition;
+            windows.addLast(new Window(start, executorService.submit(() -> channel.readRange(start, window))));
+            fetchPosition += window;
+        }
+    }
+
+    private static class Window {
+        private final long start;
+        private final Future<byte[]> future;
+
+        private Window(long start, Future<byte[]> future) {
+            this.start = start;
+            this.future = future;
+        }
+
+        private byte[] get() throws IOException {
+            return SafenetFutures.get(future);
+        }
+    }
+}
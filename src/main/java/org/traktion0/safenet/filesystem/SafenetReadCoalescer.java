@@ -0,0 +1,138 @@
+package org.traktion0.safenet.filesystem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Merges positional reads of the same file made by different threads at about the same time.
+ *
+ * The first read of a path opens a batch and, if other reads are in progress, waits for the batching
+ * window. Reads of the same path arriving meanwhile join the batch. The batch is then closed,
+ * overlapping or adjacent ranges are merged into single range requests of at most the maximum range
+ * size, and each read receives its own slice of the result. A read made while no other read is in
+ * progress is fetched at once, as nothing is likely to join it.
+ */
+class SafenetReadCoalescer {
+
+    private final SafenetSingleFlight singleFlight;
+    private final long windowNanos;
+    private final long maxRangeSize;
+    private final ConcurrentMap<String, Batch> batches = new ConcurrentHashMap<>();
+    private final AtomicInteger readsInProgress = new AtomicInteger();
+
+    SafenetReadCoalescer(SafenetSingleFlight singleFlight, long windowMicros, long maxRangeSize) {
+        this.singleFlight = singleFlight;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxRangeSize = maxRangeSize;
+    }
+
+    /**
+     * Reads up to <code>length</code> bytes from <code>fromPosition</code>. The returned array is only
+     * shorter than requested when the end of the file was reached.
+     */
+    byte[] read(String path, long fromPosition, int length) throws IOException {
+        Read read = new Read(fromPosition, length);
+
+        readsInProgress.incrementAndGet();
+        try {
+            join(path, read);
+            return SafenetFutures.get(read.result);
+        } finally {
+            readsInProgress.decrementAndGet();
+        }
+    }
+
+    private void join(String path, Read read) {
+        while (true) {
+            Batch batch = batches.get(path);
+            if (batch == null) {
+                Batch newBatch = new Batch(read);
+                if (batches.putIfAbsent(path, newBatch) == null) {
+                    fetch(path, newBatch);
+                    break;
+                }
+            } else if (batch.add(read)) {
+                break;
+            }
+            // The batch closed before the read could join it, so try again with a new one
+        }
+    }
+
+    private void fetch(String path, Batch batch) {
+        if (readsInProgress.get() > 1) LockSupport.parkNanos(windowNanos);
+        batches.remove(path, batch);
+        List<Read> reads = batch.close();
+        reads.sort(Comparator.comparingLong(read -> read.start));
+
+        int first = 0;
+        while (first < reads.size()) {
+            long rangeStart = reads.get(first).start;
+            long rangeEnd = reads.get(first).end();
+            int last = first + 1;
+            while (last < reads.size() && reads.get(last).start <= rangeEnd
+                    && Math.max(rangeEnd, reads.get(last).end()) - rangeStart <= maxRangeSize) {
+                rangeEnd = Math.max(rangeEnd, reads.get(last).end());
+                last++;
+            }
+
+            List<Read> rangeReads = reads.subList(first, last);
+            try {
+                byte[] range = singleFlight.getFileRange(path, rangeStart, (int) (rangeEnd - rangeStart));
+                for (Read read : rangeReads) {
+                    int from = (int) Math.min(read.start - rangeStart, range.length);
+                    int to = (int) Math.min(read.end() - rangeStart, range.length);
+                    read.result.complete(Arrays.copyOfRange(range, from, to));
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                for (Read read : rangeReads) {
+                    read.result.completeExceptionally(e);
+                }
+            }
+            first = last;
+        }
+    }
+
+    private static class Read {
+        private final long start;
+        private final int length;
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        private Read(long start, int length) {
+            this.start = start;
+            this.length = length;
+        }
+
+        private long end() {
+            return start + length;
+        }
+    }
+
+    private static class Batch {
+        private final List<Read> reads = new ArrayList<>();
+        private boolean closed;
+
+        private Batch(Read read) {
+            reads.add(read);
+        }
+
+        private synchronized boolean add(Read read) {
+            if (closed) return false;
+            reads.add(read);
+            return true;
+        }
+
+        private synchronized List<Read> close() {
+            closed = true;
+            return reads;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.traktion0.safenet.filesystem;
+
+import org.traktion0.safenet.client.beans.SafenetDirectory;
+import org.traktion0.safenet.client.beans.SafenetFile;
+import org.traktion0.safenet.client.commands.SafenetFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Read calls to the SAFE launcher, with concurrent identical calls sharing a single request.
+ *
+ * While a call is in flight, any other thread making the same call waits for it and receives the same
+ * result, or the same exception. Results are shared and must not be modified. When disabled, every
+ * call goes straight to the launcher.
+ */
+class SafenetSingleFlight {
+
+    private interface RemoteCall<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private final SafenetFactory safenetFactory;
+    private final boolean enabled;
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    SafenetSingleFlight(SafenetFactory safenetFactory, boolean enabled) {
+        this.safenetFactory = safenetFactory;
+        this.enabled = enabled;
+    }
+
+    SafenetFile getFileAttributes(String path) {
+        return execute("attributes:" + path, () -> safenetFactory.makeGetFileAttributesCommand(path).execute());
+    }
+
+    SafenetDirectory getDirectory(String path) {
+        return execute("directory:" + path, () -> safenetFactory.makeGetDirectoryCommand(path).execute());
+    }
+
+    /**
+     * Fetches up to <code>length</code> bytes from <code>fromPosition</code>. The returned array is only
+     * shorter than requested when the end of the file was reached.
+     */
+    byte[] getFileRange(String path, long fromPosition, int length) throws IOException {
+        return execute("range:" + fromPosition + ":" + length + ":" + path, () -> {
+            SafenetFile safenetFile = safenetFactory.makeGetFileCommand(path, fromPosition, length).execute();
+
+            try (InputStream inputStream = safenetFile.getInputStream()) {
+                byte[] buf = new byte[length];
+                int bytesRead = SafenetBuffers.readFully(inputStream, ByteBuffer.wrap(buf));
+                return bytesRead == length ? buf : Arrays.copyOf(buf, bytesRead);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T, E extends Exception> T execute(String key, RemoteCall<T, E> remoteCall) throws E {
+        if (!enabled) return remoteCall.call();
+
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existingFlight = inFlight.putIfAbsent(key, flight);
+        if (existingFlight != null) return (T) await(existingFlight);
+
+        try {
+            T result = remoteCall.call();
+            flight.complete(result);
+            return result;
+        } catch (Exception | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> Object await(CompletableFuture<Object> flight) throws E {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            // Only a call with the same key can have failed, so the exception is of the caller's type
+            throw (E) cause;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.traktion0.safenet.filesystem;
+
+import org.traktion0.safenet.client.beans.Info;
+import org.traktion0.safenet.client.beans.SafenetDirectory;
+import org.traktion0.safenet.client.commands.SafenetBadRequestException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Resolves attribute lookups of paths sharing a parent directory from a single listing of that parent.
+ *
+ * The first lookup under a parent opens a batch and, if other lookups are in progress, waits for the
+ * batching window. Lookups of other children of the same parent arriving meanwhile join the batch.
+ * The parent is then listed once and each child is found in the listing, or reported missing if it is
+ * not there. When a metadata cache is given, the whole listing is seeded into it as well. A batch
+ * holding a single lookup is not worth a listing, so that path is looked up directly instead.
+ */
+class SafenetStatCollapser {
+
+    private final SafenetSingleFlight singleFlight;
+    private final SafenetMetadataCache metadataCache;
+    private final long windowNanos;
+    private final ConcurrentMap<String, Batch> batches = new ConcurrentHashMap<>();
+    private final AtomicInteger lookupsInProgress = new AtomicInteger();
+
+    SafenetStatCollapser(SafenetSingleFlight singleFlight, SafenetMetadataCache metadataCache, long windowMicros) {
+        this.singleFlight = singleFlight;
+        this.metadataCache = metadataCache;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    }
+
+    /**
+     * Returns true if the path is a child of a directory, and so can be looked up by
+     * {@link #getAttributes(String)}. The root and paths relative to it have no parent to list.
+     */
+    static boolean canCollapse(String path) {
+        int separator = path.lastIndexOf('/');
+        return separator >= 0 && separator < path.length() - 1;
+    }
+
+    /**
+     * Returns the attributes of the normalized path, or null if it does not exist.
+     */
+    SafenetBasicFileAttributes getAttributes(String path) {
+        int separator = path.lastIndexOf('/');
+        String parent = separator == 0 ? "/" : path.substring(0, separator);
+        Lookup lookup = new Lookup(path.substring(separator + 1));
+
+        lookupsInProgress.incrementAndGet();
+        try {
+            join(path, parent, lookup);
+            return lookup.result.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw (Error) cause;
+        } finally {
+            lookupsInProgress.decrementAndGet();
+        }
+    }
+
+    private void join(String path, String parent, Lookup lookup) {
+        while (true) {
+            Batch batch = batches.get(parent);
+            if (batch == null) {
+                Batch newBatch = new Batch(lookup);
+                if (batches.putIfAbsent(parent, newBatch) == null) {
+                    list(path, parent, newBatch);
+                    break;
+                }
+            } else if (batch.add(lookup)) {
+                break;
+            }
+            // The batch closed before the lookup could join it, so try again with a new one
+        }
+    }
+
+    private void list(String path, String parent, Batch batch) {
+        if (lookupsInProgress.get() > 1) LockSupport.parkNanos(windowNanos);
+        batches.remove(parent, batch);
+        List<Lookup> lookups = batch.close();
+
+        if (lookups.size() == 1) {
+            Lookup lookup = lookups.get(0);
+            try {
+                lookup.result.complete(lookUp(path));
+            } catch (RuntimeException | Error e) {
+                lookup.result.completeExceptionally(e);
+            }
+            return;
+        }
+
+        SafenetDirectory safenetDirectory;
+        try {
+            safenetDirectory = singleFlight.getDirectory(parent);
+        } catch (SafenetBadRequestException e) {
+            // Without a parent directory, none of its children exist
+            for (Lookup lookup : lookups) {
+                lookup.result.complete(null);
+            }
+            return;
+        } catch (RuntimeException | Error e) {
+            for (Lookup lookup : lookups) {
+                lookup.result.completeExceptionally(e);
+            }
+            return;
+        }
+
+        String childPrefix = parent.endsWith("/") ? parent : parent + "/";
+        if (metadataCache != null) metadataCache.putListing(parent, childPrefix, safenetDirectory, singleFlight);
+
+        Map<String, SafenetBasicFileAttributes> children = new HashMap<>();
+        List<Info> subDirectories = safenetDirectory.getSubDirectories();
+        if (subDirectories != null) {
+            for (Info info : subDirectories) {
+                children.put(info.getName(), new SafenetBasicFileAttributes(info, true));
+            }
+        }
+        List<Info> files = safenetDirectory.getFiles();
+        if (files != null) {
+            for (Info info : files) {
+                children.put(info.getName(), new SafenetListedFileAttributes(info, singleFlight, childPrefix + info.getName()));
+            }
+        }
+
+        for (Lookup lookup : lookups) {
+            lookup.result.complete(children.get(lookup.name));
+        }
+    }
+
+    /**
+     * Looks up a single path, as a file first and then as a directory, since there is no call for
+     * either. Returns null if it is neither.
+     */
+    private SafenetBasicFileAttributes lookUp(String path) {
+        try {
+            return new SafenetBasicFileAttributes(singleFlight.getFileAttributes(path));
+        } catch (SafenetBadRequestException e) {
+            try {
+                return new SafenetBasicFileAttributes(singleFlight.getDirectory(path));
+            } catch (SafenetBadRequestException e1) {
+                return null;
+            }
+        }
+    }
+
+    private static class Lookup {
+        private final String name;
+        private final CompletableFuture<SafenetBasicFileAttributes> result = new CompletableFuture<>();
+
+        private Lookup(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Batch {
+        private final List<Lookup> lookups = new ArrayList<>();
+        private boolean closed;
+
+        private Batch(Lookup lookup) {
+            lookups.add(lookup);
+        }
+
+        private synchronized boolean add(Lookup lookup) {
+            if (closed) return false;
+            lookups.add(lookup);
+            return true;
+        }
+
+        private synchronized List<Lookup> close() {
+            closed = true;
+            return lookups;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package org.traktion0.safenet.filesystem;
+
+import org.traktion0.safenet.client.beans.Info;
+import org.traktion0.safenet.client.beans.SafenetDirectory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Walks a directory tree listing several directories at once, and streams the paths it finds.
+ *
+ * Directories waiting to be listed are queued, and at most the configured number are being listed at
+ * any time, each on the file system's executor. Every listing both emits the paths of its entries
+ * and queues its subdirectories, so the walk widens as far as the limit allows. Entries are told
+ * apart by the listing itself, so no entry is stated. Found paths pass through a bounded queue, so
+ * listing pauses while the consumer falls behind, and closing the stream stops the walk.
+ */
+class SafenetTreeWalker {
+
+    private static final int RESULT_QUEUE_CAPACITY = 1024;
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+    private static final Object END = new Object();
+
+    private final SafenetFileSystemProvider provider;
+    private final Executor executor;
+    private final int parallelism;
+    private final int maxDepth;
+    private final BlockingQueue<Object> results = new LinkedBlockingQueue<>(RESULT_QUEUE_CAPACITY);
+    private final ArrayDeque<Directory> waiting = new ArrayDeque<>();
+
+    private int running;
+    private volatile boolean closed;
+
+    SafenetTreeWalker(SafenetFileSystemProvider provider, Executor executor, int parallelism, int maxDepth) {
+        this.provider = provider;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.maxDepth = maxDepth;
+    }
+
+    Stream<Path> walk(SafenetPath start) throws IOException {
+        SafenetDirectory startListing = null;
+        if (maxDepth > 0) {
+            try {
+                startListing = provider.getDirectory(start);
+            } catch (IOException e) {
+                // The start may be a file, which is walked as just itself
+                if (provider.readAttributes(start, BasicFileAttributes.class).isDirectory()) throw e;
+            }
+        } else {
+            provider.readAttributes(start, BasicFileAttributes.class);
+        }
+
+        results.add(start);
+        if (startListing != null) {
+            submit(new Directory(start, 0, startListing));
+        } else {
+            results.add(END);
+        }
+
+        Iterator<Path> iterator = new ResultIterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.DISTINCT | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    private void submit(Directory directory) {
+        synchronized (this) {
+            if (running >= parallelism) {
+                waiting.add(directory);
+                return;
+            }
+            running++;
+        }
+        executor.execute(() -> list(directory));
+    }
+
+    private void list(Directory directory) {
+        Directory next = directory;
+        while (next != null) {
+            if (!closed) {
+                try {
+                    SafenetDirectory listing = next.listing != null ? next.listing : provider.getDirectory(next.path);
+                    emitEntries(next, listing);
+                } catch (IOException e) {
+                    emit(new UncheckedIOException(e));
+                } catch (RuntimeException e) {
+                    emit(new UncheckedIOException(new IOException("List directory '" + next.path + "' failed.", e)));
+                }
+            }
+
+            // Carry on with a waiting directory rather than handing the slot back
+            synchronized (this) {
+                next = closed ? null : waiting.poll();
+                if (next == null) {
+                    running--;
+                    if (running > 0) return;
+                }
+            }
+        }
+        emit(END);
+    }
+
+    private void emitEntries(Directory directory, SafenetDirectory listing) {
+        int depth = directory.depth + 1;
+
+        List<Info> subDirectories = listing.getSubDirectories();
+        if (subDirectories != null) {
+            for (Info info : subDirectories) {
+                SafenetPath path = directory.path.resolveChild(info.getName());
+                if (!emit(path)) return;
+                if (depth < maxDepth) submit(new Directory(path, depth, null));
+            }
+        }
+
+        List<Info> files = listing.getFiles();
+        if (files != null) {
+            for (Info info : files) {
+                if (!emit(directory.path.resolveChild(info.getName()))) return;
+            }
+        }
+    }
+
+    /**
+     * Passes a result to the consumer, waiting while the queue is full. Returns false if the stream
+     * was closed instead.
+     */
+    private boolean emit(Object result) {
+        try {
+            while (!closed) {
+                if (results.offer(result, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void close() {
+        closed = true;
+        synchronized (this) {
+            waiting.clear();
+        }
+        results.clear();
+    }
+
+    private class ResultIterator implements Iterator<Path> {
+        private Object next;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                if (closed) return false;
+                try {
+                    next = results.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("Tree walk interrupted."));
+                }
+            }
+            if (next instanceof UncheckedIOException) {
+                UncheckedIOException failure = (UncheckedIOException) next;
+                next = null;
+                throw failure;
+            }
+            return next != END;
+        }
+
+        @Override
+        public Path next() {
+            if (!hasNext()) throw new NoSuchElementException();
+
+            Path path = (Path) next;
+            next = null;
+            return path;
+        }
+    }
+
+    private static class Directory {
+        private final SafenetPath path;
+        private final int depth;
+        private final SafenetDirectory listing;
+
+        private Directory(SafenetPath path, int depth, SafenetDirectory listing) {
+            this.path = path;
+            this.depth = depth;
+            this.listing = listing;
+        }
+    }
+}
@@ -1,25 +1,48 @@
 package org.traktion0.safenet;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.traktion0.safenet.client.commands.CreateFile;
 import org.traktion0.safenet.client.commands.SafenetFactory;
 import org.traktion0.safenet.filesystem.SafenetFileSystemProvider;
 import org.traktion0.safenet.filesystem.SafenetPath;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Created by paul on 16/10/16.
@@ -27,6 +50,11 @@ import static org.mockito.Mockito.verify;
 public class SafenetFileChannelTest {
 
     private static final String URI_HOST_STRING = "safe://localhost/";
+    private static final String FILE_CONTENT = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor" +
+            "incididunt ut labore et dolore magna aliqua.";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     @Test
     public void testNewFileChannelSizeReturnsSuccess() throws IOException {
@@ -109,8 +137,8 @@ public class SafenetFileChannelTest {
             }
         }
 
-        verify(safenetFactory, times(3)).makeGetFileCommand(anyString(), anyLong(), anyLong());
-        verify(safenetFactory.makeGetFileCommand(anyString(), anyLong(), anyLong()), times(3)).execute();
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(0L), eq(144L));
+        verify(safenetFactory.makeGetFileCommand(anyString(), anyLong(), anyLong()), times(1)).execute();
 
         String expected = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor" +
                 "incididunt ut labore et dolore magna aliqua.";
@@ -181,10 +209,563 @@ public class SafenetFileChannelTest {
             }
         }
 
-        verify(safenetFactory, times(3)).makeGetFileCommand(anyString(), anyLong(), anyLong());
-        verify(safenetFactory.makeGetFileCommand(anyString(), anyLong(), anyLong()), times(3)).execute();
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(0L), eq(24L));
+        verify(safenetFactory.makeGetFileCommand(anyString(), anyLong(), anyLong()), times(1)).execute();
 
         assertEquals("Lorem ipsum dolor sit am", readContent);
         assertEquals(24, readLength);
     }
+
+    @Test
+    public void testReadWithReadAheadReturnsSuccess() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(
+                FILE_CONTENT.getBytes(StandardCharsets.UTF_8));
+        env.put("SafenetFactory", safenetFactory);
+        env.put("ReadAheadWindow", 32);
+        env.put("ReadAheadDepth", "2");
+
+        ByteBuffer buf = ByteBuffer.allocate(20);
+        String readContent = "";
+        int readLength;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.READ);
+            FileChannel fileChannel = provider.newFileChannel(
+                    new SafenetPath(fileSystem, URI.create("file.txt")),
+                    options
+            );
+
+            while ((readLength = fileChannel.read(buf)) != -1) {
+                readContent += new String(buf.array(), 0, readLength);
+                buf.clear();
+            }
+        }
+
+        // The first read is direct, then sequential access is served from 32 byte windows
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(0L), eq(20L));
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(20L), eq(32L));
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(116L), eq(32L));
+
+        assertEquals(FILE_CONTENT, readContent);
+    }
+
+    @Test
+    public void testReadFromPositionWithChunkCacheSharesBlocksBetweenChannels() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(
+                FILE_CONTENT.getBytes(StandardCharsets.UTF_8));
+        env.put("SafenetFactory", safenetFactory);
+        env.put("ChunkCacheBlockSize", 64);
+        env.put("ChunkCacheSize", 1024);
+
+        ByteBuffer buf1 = ByteBuffer.allocate(48);
+        ByteBuffer buf2 = ByteBuffer.allocate(48);
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.READ);
+            FileChannel fileChannel1 = provider.newFileChannel(new SafenetPath(fileSystem, URI.create("file.txt")), options);
+            FileChannel fileChannel2 = provider.newFileChannel(new SafenetPath(fileSystem, URI.create("file.txt")), options);
+
+            assertEquals(48, fileChannel1.read(buf1, 49));
+            assertEquals(48, fileChannel2.read(buf2, 49));
+        }
+
+        // Both reads span blocks 0 and 1, which are fetched once and then served from the cache
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(0L), eq(64L));
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(64L), eq(64L));
+
+        assertEquals(FILE_CONTENT.substring(49, 97), new String(buf1.array(), StandardCharsets.UTF_8));
+        assertEquals(FILE_CONTENT.substring(49, 97), new String(buf2.array(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReadBuffersWithChunkCacheSkipsFullBuffers() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(
+                FILE_CONTENT.getBytes(StandardCharsets.UTF_8));
+        env.put("SafenetFactory", safenetFactory);
+        env.put("ChunkCacheBlockSize", 64);
+        env.put("ChunkCacheSize", 1024);
+
+        ByteBuffer fullBuffer = ByteBuffer.allocate(0);
+        ByteBuffer nextBuffer = ByteBuffer.allocate(5);
+        long readLength;
+        long position;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.READ);
+            try (FileChannel fileChannel = provider.newFileChannel(new SafenetPath(fileSystem, URI.create("file.txt")), options)) {
+                readLength = fileChannel.read(new ByteBuffer[] {fullBuffer, nextBuffer});
+                position = fileChannel.position();
+            }
+        }
+
+        assertEquals(5, readLength);
+        assertEquals(5, position);
+        assertEquals("Lorem", new String(nextBuffer.array(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReadFromPositionRespectsBufferPositionAndLimit() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(
+                FILE_CONTENT.getBytes(StandardCharsets.UTF_8));
+        env.put("SafenetFactory", safenetFactory);
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(32);
+        buf.position(4);
+        buf.limit(16);
+        int readLength, endOfFileReadLength;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.READ);
+            FileChannel fileChannel = provider.newFileChannel(
+                    new SafenetPath(fileSystem, URI.create("file.txt")),
+                    options
+            );
+
+            readLength = fileChannel.read(buf, 6);
+            endOfFileReadLength = fileChannel.read(ByteBuffer.allocate(8), 122);
+        }
+
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(6L), eq(12L));
+
+        assertEquals(12, readLength);
+        assertEquals(-1, endOfFileReadLength);
+        assertEquals(16, buf.position());
+        assertEquals(16, buf.limit());
+
+        byte[] readContent = new byte[12];
+        buf.position(4);
+        buf.get(readContent);
+        assertEquals("ipsum dolor ", new String(readContent, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReadBuffersAdvancesPositionOnceAcrossBuffers() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(
+                FILE_CONTENT.getBytes(StandardCharsets.UTF_8));
+        env.put("SafenetFactory", safenetFactory);
+
+        ByteBuffer[] byteBuffers = {ByteBuffer.allocate(6), ByteBuffer.allocateDirect(6)};
+        ByteBuffer nextBuffer = ByteBuffer.allocate(5);
+        long readLength;
+        long position;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.READ);
+            FileChannel fileChannel = provider.newFileChannel(
+                    new SafenetPath(fileSystem, URI.create("file.txt")),
+                    options
+            );
+
+            readLength = fileChannel.read(byteBuffers);
+            position = fileChannel.position();
+            fileChannel.read(nextBuffer);
+        }
+
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(0L), eq(12L));
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(12L), eq(5L));
+
+        assertEquals(12, readLength);
+        assertEquals(12, position);
+        assertEquals("dolor", new String(nextBuffer.array(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTransferToStreamsRangeInChunks() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(
+                FILE_CONTENT.getBytes(StandardCharsets.UTF_8));
+        env.put("SafenetFactory", safenetFactory);
+        env.put("TransferChunkSize", 32);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long transferLength;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.READ);
+            FileChannel fileChannel = provider.newFileChannel(
+                    new SafenetPath(fileSystem, URI.create("file.txt")),
+                    options
+            );
+
+            transferLength = fileChannel.transferTo(10, 1000, Channels.newChannel(outputStream));
+        }
+
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(10L), eq(32L));
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(106L), eq(32L));
+
+        assertEquals(112, transferLength);
+        assertEquals(FILE_CONTENT.substring(10), new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTransferFromUploadsOnce() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithCreateFileReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+
+        byte[] fileContent = FILE_CONTENT.getBytes(StandardCharsets.UTF_8);
+        long transferLength;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.WRITE);
+            FileChannel fileChannel = provider.newFileChannel(
+                    new SafenetPath(fileSystem, URI.create("file.txt")),
+                    options
+            );
+
+            transferLength = fileChannel.transferFrom(Channels.newChannel(new ByteArrayInputStream(fileContent)), 0, 1000);
+        }
+
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), aryEq(fileContent));
+
+        assertEquals(122, transferLength);
+    }
+
+    @Test
+    public void testTransferFromLargerThanSpoolMemoryThresholdUploadsOnce() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithCreateFileReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+        env.put("SpoolMemoryThreshold", 16);
+
+        byte[] fileContent = FILE_CONTENT.getBytes(StandardCharsets.UTF_8);
+        long transferLength;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.WRITE);
+            FileChannel fileChannel = provider.newFileChannel(
+                    new SafenetPath(fileSystem, URI.create("file.txt")),
+                    options
+            );
+
+            transferLength = fileChannel.transferFrom(Channels.newChannel(new ByteArrayInputStream(fileContent)), 0, 1000);
+        }
+
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), any(byte[].class));
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), aryEq(fileContent));
+
+        assertEquals(fileContent.length, transferLength);
+    }
+
+    @Test
+    public void testTransferFromNonZeroPositionIsUploadedOnClose() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithCreateFileReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+
+        long pastEndLength;
+        long transferLength;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.WRITE);
+            options.add(StandardOpenOption.TRUNCATE_EXISTING);
+            try (FileChannel fileChannel = provider.newFileChannel(new SafenetPath(fileSystem, URI.create("file.txt")), options)) {
+                pastEndLength = fileChannel.transferFrom(Channels.newChannel(new ByteArrayInputStream(new byte[1])), 1, 1);
+                fileChannel.write(ByteBuffer.wrap("Hello".getBytes(StandardCharsets.UTF_8)), 0);
+                transferLength = fileChannel.transferFrom(
+                        Channels.newChannel(new ByteArrayInputStream(" World".getBytes(StandardCharsets.UTF_8))), 5, 100);
+            }
+        }
+
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), any(byte[].class));
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), aryEq("Hello World".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(0, pastEndLength);
+        assertEquals(6, transferLength);
+    }
+
+    @Test
+    public void testWriteBehindUploadsOnceOnClose() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithCreateFileReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+        env.put("WriteBehind", true);
+        env.put("SpoolMemoryThreshold", 16);
+
+        byte[] fileContent = FILE_CONTENT.getBytes(StandardCharsets.UTF_8);
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            try (OutputStream outputStream = provider.newOutputStream(new SafenetPath(fileSystem, URI.create("file.txt")))) {
+                for (int i=0; i<fileContent.length; i+=10) {
+                    outputStream.write(fileContent, i, Math.min(10, fileContent.length - i));
+                }
+                verify(safenetFactory, never()).makeCreateFileCommand(anyString(), any(byte[].class));
+            }
+        }
+
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), any(byte[].class));
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), aryEq(fileContent));
+    }
+
+    @Test
+    public void testWriteBehindAsyncUploadOnForceIsJoinedOnClose() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithCreateFileReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+        env.put("WriteBehind", "true");
+        env.put("AsyncUpload", "true");
+
+        byte[] fileContent = FILE_CONTENT.getBytes(StandardCharsets.UTF_8);
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.WRITE);
+            options.add(StandardOpenOption.TRUNCATE_EXISTING);
+            try (FileChannel fileChannel = provider.newFileChannel(new SafenetPath(fileSystem, URI.create("file.txt")), options)) {
+                fileChannel.write(ByteBuffer.wrap(fileContent));
+                fileChannel.force(true);
+            }
+        }
+
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), aryEq(fileContent));
+    }
+
+    @Test
+    public void testGatheringWriteUploadsRemainingBytesOfDirectAndReadOnlyBuffers() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithCreateFileReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+
+        byte[] header = "HEADER".getBytes(StandardCharsets.UTF_8);
+        byte[] payload = FILE_CONTENT.getBytes(StandardCharsets.UTF_8);
+        byte[] trailer = "--TRAILER".getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer headerBuffer = ByteBuffer.allocateDirect(header.length);
+        headerBuffer.put(header).flip();
+        ByteBuffer payloadBuffer = ByteBuffer.wrap(payload).asReadOnlyBuffer();
+        ByteBuffer trailerBuffer = ByteBuffer.wrap(trailer);
+        trailerBuffer.position(2);
+
+        ByteArrayOutputStream expectedContent = new ByteArrayOutputStream();
+        expectedContent.write(header);
+        expectedContent.write(payload);
+        expectedContent.write(trailer, 2, trailer.length - 2);
+
+        long writeLength;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.WRITE);
+            FileChannel fileChannel = provider.newFileChannel(new SafenetPath(fileSystem, URI.create("file.txt")), options);
+
+            writeLength = fileChannel.write(new ByteBuffer[] { headerBuffer, payloadBuffer, trailerBuffer });
+        }
+
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), aryEq(expectedContent.toByteArray()));
+
+        assertEquals(expectedContent.size(), writeLength);
+        assertEquals(0, headerBuffer.remaining() + payloadBuffer.remaining() + trailerBuffer.remaining());
+    }
+
+    @Test
+    public void testPositionalWritesAreReadBackAndUploadedOnce() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithCreateFileReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+        env.put("WritePageSize", 4);
+
+        String readContent;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.READ);
+            options.add(StandardOpenOption.WRITE);
+            options.add(StandardOpenOption.TRUNCATE_EXISTING);
+            try (FileChannel fileChannel = provider.newFileChannel(new SafenetPath(fileSystem, URI.create("file.txt")), options)) {
+                fileChannel.write(ByteBuffer.wrap("World".getBytes(StandardCharsets.UTF_8)), 6);
+                fileChannel.position(0).write(ByteBuffer.wrap("Hello".getBytes(StandardCharsets.UTF_8)));
+                fileChannel.write(ByteBuffer.wrap(" ".getBytes(StandardCharsets.UTF_8)), 5);
+
+                ByteBuffer byteBuffer = ByteBuffer.allocate(20);
+                fileChannel.read(byteBuffer, 0);
+                readContent = new String(byteBuffer.array(), 0, byteBuffer.position(), StandardCharsets.UTF_8);
+
+                assertEquals(11, fileChannel.size());
+                assertEquals(5, fileChannel.position());
+                verify(safenetFactory, never()).makeCreateFileCommand(anyString(), any(byte[].class));
+            }
+        }
+
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), any(byte[].class));
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), aryEq("Hello World".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("Hello World", readContent);
+    }
+
+    @Test
+    public void testWriteAfterPositionOverlaysExistingContent() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(
+                "Hello World".getBytes(StandardCharsets.UTF_8));
+        CreateFile createFile = mock(CreateFile.class);
+        when(safenetFactory.makeCreateFileCommand(anyString(), any(byte[].class))).thenReturn(createFile);
+        when(createFile.execute()).thenReturn("ok");
+        env.put("SafenetFactory", safenetFactory);
+
+        long position;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.WRITE);
+            try (FileChannel fileChannel = provider.newFileChannel(new SafenetPath(fileSystem, URI.create("file.txt")), options)) {
+                fileChannel.position(6).write(ByteBuffer.wrap("There".getBytes(StandardCharsets.UTF_8)));
+                position = fileChannel.position();
+                verify(safenetFactory, never()).makeCreateFileCommand(anyString(), any(byte[].class));
+            }
+        }
+
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), any(byte[].class));
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), aryEq("Hello There".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(11, position);
+    }
+
+    @Test
+    public void testPositionalWriteUploadFetchesEachUnwrittenRunOnce() throws IOException {
+        byte[] fileContent = new byte[64];
+        Arrays.fill(fileContent, (byte) 'a');
+
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(fileContent);
+        CreateFile createFile = mock(CreateFile.class);
+        when(safenetFactory.makeCreateFileCommand(anyString(), any(byte[].class))).thenReturn(createFile);
+        when(createFile.execute()).thenReturn("ok");
+        env.put("SafenetFactory", safenetFactory);
+        env.put("WritePageSize", 4);
+
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.READ);
+            options.add(StandardOpenOption.WRITE);
+            try (FileChannel fileChannel = provider.newFileChannel(new SafenetPath(fileSystem, URI.create("file.txt")), options)) {
+                fileChannel.write(ByteBuffer.wrap("WXYZ".getBytes(StandardCharsets.UTF_8)), 28);
+            }
+        }
+
+        byte[] expectedContent = fileContent.clone();
+        System.arraycopy("WXYZ".getBytes(StandardCharsets.UTF_8), 0, expectedContent, 28, 4);
+
+        // The pages before and after the written page are each fetched as one range
+        verify(safenetFactory, times(2)).makeGetFileCommand(anyString(), anyLong(), anyLong());
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), aryEq(expectedContent));
+    }
+
+    @Test
+    public void testConcurrentAdjacentReadsAreCoalescedIntoOneRange() throws Exception {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(
+                FILE_CONTENT.getBytes(StandardCharsets.UTF_8));
+        env.put("SafenetFactory", safenetFactory);
+        env.put("ReadCoalesceWindow", 200000);
+
+        int threads = 4;
+        List<Future<String>> results = new ArrayList<>();
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            CyclicBarrier barrier = new CyclicBarrier(threads);
+            for (int i=0; i<threads; i++) {
+                long position = i * 10;
+                results.add(executorService.submit(() -> {
+                    HashSet<StandardOpenOption> options = new HashSet<>();
+                    options.add(StandardOpenOption.READ);
+                    try (FileChannel fileChannel = provider.newFileChannel(new SafenetPath(fileSystem, URI.create("file.txt")), options)) {
+                        ByteBuffer byteBuffer = ByteBuffer.allocate(10);
+                        barrier.await();
+                        fileChannel.read(byteBuffer, position);
+                        return new String(byteBuffer.array(), 0, byteBuffer.position(), StandardCharsets.UTF_8);
+                    }
+                }));
+            }
+            for (int i=0; i<threads; i++) {
+                assertEquals(FILE_CONTENT.substring(i * 10, i * 10 + 10), results.get(i).get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), anyLong(), anyLong());
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(0L), eq(40L));
+    }
+
+    @Test(timeout = 5000)
+    public void testLoneReadWithReadCoalescingDoesNotWaitForWindow() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(
+                FILE_CONTENT.getBytes(StandardCharsets.UTF_8));
+        env.put("SafenetFactory", safenetFactory);
+        env.put("ReadCoalesceWindow", 60000000);
+
+        String readContent;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.READ);
+            try (FileChannel fileChannel = provider.newFileChannel(new SafenetPath(fileSystem, URI.create("file.txt")), options)) {
+                ByteBuffer byteBuffer = ByteBuffer.allocate(10);
+                fileChannel.read(byteBuffer, 0);
+                readContent = new String(byteBuffer.array(), 0, byteBuffer.position(), StandardCharsets.UTF_8);
+            }
+        }
+
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(0L), eq(10L));
+
+        assertEquals(FILE_CONTENT.substring(0, 10), readContent);
+    }
+
+    @Test
+    public void testDiskCacheServesBlocksAfterRestart() throws IOException {
+        Path cacheDirectory = temporaryFolder.newFolder("safenet-cache").toPath();
+        byte[] fileContent = FILE_CONTENT.getBytes(StandardCharsets.UTF_8);
+
+        SafenetFactory coldSafenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(fileContent);
+        assertEquals(FILE_CONTENT, readWithDiskCache(coldSafenetFactory, cacheDirectory));
+        verify(coldSafenetFactory, times(1)).makeGetFileCommand(anyString(), anyLong(), anyLong());
+
+        SafenetFactory warmSafenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(fileContent);
+        assertEquals(FILE_CONTENT, readWithDiskCache(warmSafenetFactory, cacheDirectory));
+        verify(warmSafenetFactory, times(1)).makeGetFileAttributesCommand(anyString());
+        verify(warmSafenetFactory, never()).makeGetFileCommand(anyString(), anyLong(), anyLong());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNewFileSystemWithUnusableDiskCacheDirectoryFails() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        env.put("SafenetFactory", SafenetMockFactory.makeBasicSafenetFactoryMock());
+        env.put("DiskCacheDirectory", temporaryFolder.newFile("safenet-cache").toPath());
+
+        new SafenetFileSystemProvider().newFileSystem(URI.create(URI_HOST_STRING), env);
+    }
+
+    private String readWithDiskCache(SafenetFactory safenetFactory, Path cacheDirectory) throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        env.put("SafenetFactory", safenetFactory);
+        env.put("DiskCacheDirectory", cacheDirectory);
+
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.READ);
+            try (FileChannel fileChannel = provider.newFileChannel(new SafenetPath(fileSystem, URI.create("file.txt")), options)) {
+                ByteBuffer byteBuffer = ByteBuffer.allocate(FILE_CONTENT.length());
+                fileChannel.read(byteBuffer, 0);
+                return new String(byteBuffer.array(), 0, byteBuffer.position(), StandardCharsets.UTF_8);
+            }
+        }
+    }
 }
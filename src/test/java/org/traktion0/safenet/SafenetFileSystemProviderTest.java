@@ -1,29 +1,55 @@
 package org.traktion0.safenet;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.traktion0.safenet.client.commands.CreateFile;
 import org.traktion0.safenet.client.commands.SafenetFactory;
+import org.traktion0.safenet.filesystem.SafenetFileSubscriber;
 import org.traktion0.safenet.filesystem.SafenetFileSystemProvider;
 import org.traktion0.safenet.filesystem.SafenetPath;
 
 import java.io.*;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.FileSystem;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Created by paul on 25/09/16.
@@ -32,6 +58,9 @@ public class SafenetFileSystemProviderTest {
 
     private static final String URI_HOST_STRING = "safe://localhost/";
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void testNewFileSystemFromFileSystems() throws IOException {
         Map<String, Object> env = new HashMap<>();
@@ -195,6 +224,7 @@ public class SafenetFileSystemProviderTest {
 
         ByteBuffer buf = ByteBuffer.allocate(48);
         int readLength = 0;
+        int endOfFileRead;
         String firstRead, secondRead, thirdRead;
         SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
         try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
@@ -208,19 +238,25 @@ public class SafenetFileSystemProviderTest {
             readLength = fileChannel.read(buf);
             firstRead = new String(buf.array(), 0, readLength);
 
+            buf.clear();
             readLength = fileChannel.read(buf);
             secondRead = new String(buf.array(), 0, readLength);
 
+            buf.clear();
             readLength = fileChannel.read(buf);
             thirdRead = new String(buf.array(), 0, readLength);
+
+            buf.clear();
+            endOfFileRead = fileChannel.read(buf);
         }
 
-        verify(safenetFactory, times(3)).makeGetFileCommand(anyString(), anyLong(), anyLong());
-        verify(safenetFactory.makeGetFileCommand(anyString(), anyLong(), anyLong()), times(3)).execute();
+        verify(safenetFactory, times(4)).makeGetFileCommand(anyString(), anyLong(), anyLong());
+        verify(safenetFactory.makeGetFileCommand(anyString(), anyLong(), anyLong()), times(4)).execute();
 
         assertEquals("Lorem ipsum dolor sit amet, consectetur adipisci", firstRead);
         assertEquals("ng elit, sed do eiusmod temporincididunt ut labo", secondRead);
         assertEquals("re et dolore magna aliqua.", thirdRead);
+        assertEquals(-1, endOfFileRead);
     }
 
     @Test
@@ -384,6 +420,63 @@ public class SafenetFileSystemProviderTest {
         assertEquals("Directory contents path mismatches", "subdir1:subdir2:file1.txt:file2.jpg:", contentString);
     }
 
+    @Test
+    public void testNewDirectoryStreamAppliesFilter() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetDirectoryReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+
+        DirectoryStream.Filter<Path> filter =
+                path -> path.getFileName().toString().startsWith("file");
+
+        String contentString = "";
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            Path path = new SafenetPath(fileSystem, URI.create("/"));
+            try (DirectoryStream<Path> directoryStream = provider.newDirectoryStream(path, filter)) {
+                for (Path subPath : directoryStream) {
+                    contentString += subPath.toString() + ":";
+                }
+            }
+        }
+
+        assertEquals("Directory contents path mismatches", "/file1.txt:/file2.jpg:", contentString);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNewDirectoryStreamSecondIteratorThrowsIllegalState() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetDirectoryReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            Path path = new SafenetPath(fileSystem, URI.create("/"));
+            try (DirectoryStream<Path> directoryStream = provider.newDirectoryStream(path, entry -> true)) {
+                directoryStream.iterator();
+                directoryStream.iterator();
+            }
+        }
+    }
+
+    @Test
+    public void testNewDirectoryStreamCloseEndsIteration() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetDirectoryReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            Path path = new SafenetPath(fileSystem, URI.create("/"));
+            DirectoryStream<Path> directoryStream = provider.newDirectoryStream(path, entry -> true);
+            Iterator<Path> iterator = directoryStream.iterator();
+
+            assertEquals("First entry mismatches", "subdir1", iterator.next().getFileName().toString());
+            directoryStream.close();
+            assertFalse("Iterator has entries after close", iterator.hasNext());
+        }
+    }
+
     @Test
     public void testNewInputStreamReturnsSuccess() throws IOException {
         Map<String, Object> env = new HashMap<>();
@@ -454,4 +547,503 @@ public class SafenetFileSystemProviderTest {
 
         //assertNoException
     }
+
+    @Test
+    public void testCopyToLocalPathWithParallelDownloadReturnsSuccess() throws IOException {
+        String fileContent = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor" +
+                "incididunt ut labore et dolore magna aliqua.";
+
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(
+                fileContent.getBytes(StandardCharsets.UTF_8));
+        env.put("SafenetFactory", safenetFactory);
+        env.put("ParallelDownloadThreads", 3);
+        env.put("ParallelDownloadRangeSize", 50);
+
+        Path localPath = Files.createTempFile("safenet-copy", ".txt");
+        try {
+            SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+            try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+                provider.copy(new SafenetPath(fileSystem, URI.create("file.txt")), localPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(0L), eq(50L));
+            verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(50L), eq(50L));
+            verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(100L), eq(22L));
+
+            assertEquals(fileContent, new String(Files.readAllBytes(localPath), StandardCharsets.UTF_8));
+        } finally {
+            Files.deleteIfExists(localPath);
+        }
+    }
+
+    @Test
+    public void testCopyBetweenSafePathsUploadsSourceContent() throws IOException {
+        byte[] fileContent = "Lorem ipsum dolor sit amet".getBytes(StandardCharsets.UTF_8);
+
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(fileContent);
+        CreateFile createFile = mock(CreateFile.class);
+        when(safenetFactory.makeCreateFileCommand(anyString(), any(byte[].class))).thenReturn(createFile);
+        when(createFile.execute()).thenReturn("ok");
+        env.put("SafenetFactory", safenetFactory);
+
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            provider.copy(new SafenetPath(fileSystem, URI.create("/file.txt")), new SafenetPath(fileSystem, URI.create("/copy.txt")),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        verify(safenetFactory, times(1)).makeCreateFileCommand(eq("/copy.txt"), aryEq(fileContent));
+    }
+
+    @Test
+    public void testCopyBetweenSafePathsLargerThanSpoolMemoryThresholdUploadsOnce() throws IOException {
+        byte[] fileContent = "Lorem ipsum dolor sit amet, consectetur adipiscing elit".getBytes(StandardCharsets.UTF_8);
+
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(fileContent);
+        CreateFile createFile = mock(CreateFile.class);
+        when(safenetFactory.makeCreateFileCommand(anyString(), any(byte[].class))).thenReturn(createFile);
+        when(createFile.execute()).thenReturn("ok");
+        env.put("SafenetFactory", safenetFactory);
+        env.put("SpoolMemoryThreshold", 16);
+
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            provider.copy(new SafenetPath(fileSystem, URI.create("/file.txt")), new SafenetPath(fileSystem, URI.create("/copy.txt")),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), any(byte[].class));
+        verify(safenetFactory, times(1)).makeCreateFileCommand(eq("/copy.txt"), aryEq(fileContent));
+    }
+
+    @Test(expected = FileAlreadyExistsException.class)
+    public void testCopyBetweenSafePathsWithoutReplaceExistingFails() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        env.put("SafenetFactory", SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(new byte[10]));
+
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            provider.copy(new SafenetPath(fileSystem, URI.create("/file.txt")), new SafenetPath(fileSystem, URI.create("/copy.txt")));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCopyWithAtomicMoveOptionFails() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        env.put("SafenetFactory", SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(new byte[10]));
+
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            provider.copy(new SafenetPath(fileSystem, URI.create("/file.txt")), new SafenetPath(fileSystem, URI.create("/copy.txt")),
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    @Test
+    public void testReadBasicFileAttributesForDirectoryWithAttributeCacheReturnsSuccess() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetDirectoryReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+        env.put("AttributeCacheTtl", 60000);
+
+        boolean isDirectory;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            Path path = new SafenetPath(fileSystem, URI.create("directory"));
+            provider.readAttributes(path, BasicFileAttributes.class);
+            isDirectory = provider.readAttributes(path, BasicFileAttributes.class).isDirectory();
+        }
+
+        verify(safenetFactory, times(1)).makeGetFileAttributesCommand(anyString());
+        verify(safenetFactory, times(1)).makeGetDirectoryCommand(anyString());
+
+        assertTrue("Cached attributes are not a directory", isDirectory);
+    }
+
+    @Test
+    public void testCheckAccessWithMissingFileAndAttributeCacheRemembersMissingPath() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetDirectoryGetFileAttributesReturnsException();
+        env.put("SafenetFactory", safenetFactory);
+        env.put("AttributeCacheTtl", 60000);
+
+        int missingCount = 0;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            for (int i=0; i<2; i++) {
+                try {
+                    provider.checkAccess(new SafenetPath(fileSystem, URI.create("missing.txt")));
+                } catch (NoSuchFileException e) {
+                    missingCount++;
+                }
+            }
+        }
+
+        verify(safenetFactory, times(1)).makeGetFileAttributesCommand(anyString());
+        verify(safenetFactory, times(1)).makeGetDirectoryCommand(anyString());
+
+        assertEquals(2, missingCount);
+    }
+
+    @Test
+    public void testReadBasicFileAttributesAfterDirectoryListingUsesListing() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetDirectoryReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+        env.put("AttributeCacheTtl", 60000);
+
+        String contentString = "";
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            Path path = new SafenetPath(fileSystem, URI.create("/"));
+            try (DirectoryStream<Path> directoryStream = provider.newDirectoryStream(path, entry -> true)) {
+                for (Path subPath : directoryStream) {
+                    BasicFileAttributes attributes = provider.readAttributes(subPath, BasicFileAttributes.class);
+                    contentString += subPath.getFileName() + (attributes.isDirectory() ? "/" : "") + ":";
+                }
+            }
+        }
+
+        verify(safenetFactory, never()).makeGetFileAttributesCommand(anyString());
+        verify(safenetFactory, times(1)).makeGetDirectoryCommand(anyString());
+
+        assertEquals("Directory contents path mismatches", "subdir1/:subdir2/:file1.txt:file2.jpg:", contentString);
+    }
+
+    @Test
+    public void testListedFileSizeFailureIsFetchedOnce() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetDirectoryReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+        env.put("AttributeCacheTtl", 60000);
+
+        int failureCount = 0;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            try (DirectoryStream<Path> directoryStream = provider.newDirectoryStream(new SafenetPath(fileSystem, URI.create("/")), entry -> true)) {
+                for (Path ignored : directoryStream) {
+                }
+            }
+
+            BasicFileAttributes attributes = provider.readAttributes(new SafenetPath(fileSystem, URI.create("/file1.txt")), BasicFileAttributes.class);
+            for (int i=0; i<2; i++) {
+                try {
+                    attributes.size();
+                } catch (UncheckedIOException e) {
+                    failureCount++;
+                }
+            }
+        }
+
+        verify(safenetFactory, times(1)).makeGetFileAttributesCommand(anyString());
+
+        assertEquals(2, failureCount);
+    }
+
+    @Test
+    public void testNewAsynchronousFileChannelReadReturnsSuccess() throws Exception {
+        String fileContent = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor" +
+                "incididunt ut labore et dolore magna aliqua.";
+
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(
+                fileContent.getBytes(StandardCharsets.UTF_8));
+        env.put("SafenetFactory", safenetFactory);
+
+        ByteBuffer first = ByteBuffer.allocate(11);
+        ByteBuffer second = ByteBuffer.allocate(20);
+        int firstLength;
+        int secondLength;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.READ);
+            try (AsynchronousFileChannel fileChannel = provider.newAsynchronousFileChannel(
+                    new SafenetPath(fileSystem, URI.create("file.txt")), options, null)) {
+                Future<Integer> firstRead = fileChannel.read(first, 0);
+                Future<Integer> secondRead = fileChannel.read(second, 112);
+                firstLength = firstRead.get(10, TimeUnit.SECONDS);
+                secondLength = secondRead.get(10, TimeUnit.SECONDS);
+            }
+        }
+
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(0L), eq(11L));
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(112L), eq(20L));
+
+        assertEquals(11, firstLength);
+        assertEquals("Lorem ipsum", new String(first.array(), 0, firstLength, StandardCharsets.UTF_8));
+        assertEquals(10, secondLength);
+        assertEquals("na aliqua.", new String(second.array(), 0, secondLength, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNewAsynchronousFileChannelWriteCompletesAndUploadsOnClose() throws Exception {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithCreateFileReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+
+        CompletableFuture<Integer> written = new CompletableFuture<>();
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            HashSet<StandardOpenOption> options = new HashSet<>();
+            options.add(StandardOpenOption.WRITE);
+            options.add(StandardOpenOption.TRUNCATE_EXISTING);
+            ExecutorService executorService = Executors.newSingleThreadExecutor();
+            try (AsynchronousFileChannel fileChannel = provider.newAsynchronousFileChannel(
+                    new SafenetPath(fileSystem, URI.create("file.txt")), options, executorService)) {
+                fileChannel.write(ByteBuffer.wrap("Hello".getBytes(StandardCharsets.UTF_8)), 0, null,
+                        new CompletionHandler<Integer, Object>() {
+                            @Override
+                            public void completed(Integer result, Object attachment) {
+                                written.complete(result);
+                            }
+
+                            @Override
+                            public void failed(Throwable exc, Object attachment) {
+                                written.completeExceptionally(exc);
+                            }
+                        });
+                assertEquals(5, (int) written.get(10, TimeUnit.SECONDS));
+            } finally {
+                executorService.shutdown();
+            }
+        }
+
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), aryEq("Hello".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testNewPublisherFetchesRangesOnDemand() throws Exception {
+        String fileContent = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor" +
+                "incididunt ut labore et dolore magna aliqua.";
+
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(
+                fileContent.getBytes(StandardCharsets.UTF_8));
+        env.put("SafenetFactory", safenetFactory);
+        env.put("TransferChunkSize", 50);
+
+        ByteArrayOutputStream readContent = new ByteArrayOutputStream();
+        CompletableFuture<Subscription> subscribed = new CompletableFuture<>();
+        CountDownLatch firstChunk = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(1);
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            Publisher<ByteBuffer> publisher = provider.newPublisher(new SafenetPath(fileSystem, URI.create("file.txt")));
+            publisher.subscribe(new Subscriber<ByteBuffer>() {
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                    subscribed.complete(subscription);
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(ByteBuffer byteBuffer) {
+                    readContent.write(byteBuffer.array(), byteBuffer.position(), byteBuffer.remaining());
+                    firstChunk.countDown();
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    completed.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    completed.countDown();
+                }
+            });
+
+            assertTrue(firstChunk.await(10, TimeUnit.SECONDS));
+            verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), anyLong(), anyLong());
+
+            subscribed.get().request(Long.MAX_VALUE);
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+        }
+
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(0L), eq(50L));
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(50L), eq(50L));
+        verify(safenetFactory, times(1)).makeGetFileCommand(anyString(), eq(100L), eq(50L));
+
+        assertEquals(fileContent, new String(readContent.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNewSubscriberUploadsOnceOnComplete() throws Exception {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithCreateFileReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+
+        String[] parts = { "Lorem ipsum ", "dolor sit ", "amet" };
+        long uploadLength;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            SafenetFileSubscriber subscriber = provider.newSubscriber(new SafenetPath(fileSystem, URI.create("file.txt")));
+            subscriber.onSubscribe(new Subscription() {
+                private int next = 0;
+
+                @Override
+                public void request(long n) {
+                    if (next < parts.length) {
+                        subscriber.onNext(ByteBuffer.wrap(parts[next++].getBytes(StandardCharsets.UTF_8)));
+                    } else if (next++ == parts.length) {
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+
+            uploadLength = subscriber.getResult().get(10, TimeUnit.SECONDS);
+        }
+
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), any(byte[].class));
+        verify(safenetFactory, times(1)).makeCreateFileCommand(anyString(), aryEq("Lorem ipsum dolor sit amet".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(26, uploadLength);
+    }
+
+    @Test
+    public void testConcurrentReadAttributesWithSingleFlightSharesOneCall() throws Exception {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(
+                "Lorem ipsum".getBytes(StandardCharsets.UTF_8), 500);
+        env.put("SafenetFactory", safenetFactory);
+        env.put("SingleFlight", true);
+
+        int threads = 4;
+        List<Future<BasicFileAttributes>> results = new ArrayList<>();
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            CyclicBarrier barrier = new CyclicBarrier(threads);
+            for (int i=0; i<threads; i++) {
+                results.add(executorService.submit(() -> {
+                    barrier.await();
+                    return provider.readAttributes(new SafenetPath(fileSystem, URI.create("file.txt")), BasicFileAttributes.class);
+                }));
+            }
+            for (Future<BasicFileAttributes> result : results) {
+                assertEquals(11, result.get(10, TimeUnit.SECONDS).size());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        verify(safenetFactory, times(1)).makeGetFileAttributesCommand(anyString());
+    }
+
+    @Test
+    public void testConcurrentSiblingReadAttributesShareOneParentListing() throws Exception {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetDirectoryReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+        env.put("StatCollapseWindow", 200000);
+
+        String[] paths = {"/directory/file1.txt", "/directory/file2.jpg", "/directory/subdir1", "/directory/missing"};
+        List<Future<String>> results = new ArrayList<>();
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        ExecutorService executorService = Executors.newFixedThreadPool(paths.length);
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            CyclicBarrier barrier = new CyclicBarrier(paths.length);
+            for (String path : paths) {
+                results.add(executorService.submit(() -> {
+                    barrier.await();
+                    try {
+                        BasicFileAttributes basicFileAttributes = provider.readAttributes(
+                                new SafenetPath(fileSystem, URI.create(path)), BasicFileAttributes.class);
+                        return basicFileAttributes.isDirectory() ? "directory" : "file";
+                    } catch (NoSuchFileException e) {
+                        return "missing";
+                    }
+                }));
+            }
+
+            assertEquals("file", results.get(0).get(10, TimeUnit.SECONDS));
+            assertEquals("file", results.get(1).get(10, TimeUnit.SECONDS));
+            assertEquals("directory", results.get(2).get(10, TimeUnit.SECONDS));
+            assertEquals("missing", results.get(3).get(10, TimeUnit.SECONDS));
+        } finally {
+            executorService.shutdown();
+        }
+
+        verify(safenetFactory, times(1)).makeGetDirectoryCommand(anyString());
+        verify(safenetFactory, times(1)).makeGetDirectoryCommand(eq("/directory"));
+        verify(safenetFactory, never()).makeGetFileAttributesCommand(anyString());
+    }
+
+    @Test(timeout = 5000)
+    public void testLoneReadAttributesWithStatCollapseLooksUpPathDirectly() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetFileAttributesReturnsSuccess();
+        env.put("SafenetFactory", safenetFactory);
+        env.put("StatCollapseWindow", 60000000);
+
+        BasicFileAttributes basicFileAttributes;
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            basicFileAttributes = provider.readAttributes(new SafenetPath(fileSystem, URI.create("/directory/file.svg")), BasicFileAttributes.class);
+        }
+
+        verify(safenetFactory, times(1)).makeGetFileAttributesCommand(eq("/directory/file.svg"));
+        verify(safenetFactory, never()).makeGetDirectoryCommand(anyString());
+
+        assertEquals(3067, basicFileAttributes.size());
+    }
+
+    @Test
+    public void testNewDirectoryStreamAfterRestartUsesMetadataSnapshot() throws IOException {
+        Path snapshotFile = temporaryFolder.newFolder("safenet-metadata").toPath().resolve("metadata.snapshot");
+
+        Map<String, Object> env = new HashMap<>();
+        env.put("SafenetFactory", SafenetMockFactory.makeSafenetFactoryMockWithGetDirectoryReturnsSuccess());
+        env.put("AttributeCacheTtl", 60000);
+        env.put("MetadataSnapshotFile", snapshotFile);
+
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            provider.newDirectoryStream(new SafenetPath(fileSystem, URI.create("/")), entry -> true).close();
+        }
+
+        // The launcher now fails every call, so the listing can only come from the snapshot
+        env.put("SafenetFactory", SafenetMockFactory.makeSafenetFactoryMockWithGetDirectoryGetFileAttributesReturnsException());
+
+        String contentString = "";
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            try (DirectoryStream<Path> directoryStream = provider.newDirectoryStream(new SafenetPath(fileSystem, URI.create("/")), entry -> true)) {
+                for (Path subPath : directoryStream) {
+                    contentString += subPath.getFileName() + ":";
+                }
+            }
+        }
+
+        assertEquals("Directory contents path mismatches", "subdir1:subdir2:file1.txt:file2.jpg:", contentString);
+    }
+
+    @Test
+    public void testWalkListsEachDirectoryOnceUpToMaxDepth() throws IOException {
+        SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetDirectoryReturnsRootDirectories();
+
+        Map<String, Object> env = new HashMap<>();
+        env.put("SafenetFactory", safenetFactory);
+        env.put("WalkParallelism", 4);
+
+        SafenetFileSystemProvider provider = new SafenetFileSystemProvider();
+        List<String> paths;
+        try (FileSystem fileSystem = provider.newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            try (Stream<Path> walk = provider.walk(new SafenetPath(fileSystem, URI.create("/")), 2)) {
+                paths = walk.map(Path::toString).sorted().collect(Collectors.toList());
+            }
+        }
+
+        assertEquals("Walked paths mismatch", "[/, /app, /app/app, /app/drive, /drive, /drive/app, /drive/drive]", paths.toString());
+        verify(safenetFactory, times(3)).makeGetDirectoryCommand(anyString());
+        verify(safenetFactory, times(1)).makeGetDirectoryCommand(eq("/app"));
+        verify(safenetFactory, times(1)).makeGetDirectoryCommand(eq("/drive"));
+    }
 }
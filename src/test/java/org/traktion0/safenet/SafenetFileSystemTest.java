@@ -12,6 +12,8 @@ import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
 /**
@@ -61,6 +63,22 @@ public class SafenetFileSystemTest {
         assertEquals("Matcher mismatch", "", matches);
     }
 
+    @Test
+    public void testGetPathMatcherWithGlobGroupMatch() {
+        String matches = getPathMatcher("glob:{dr*,a[!q]p}");
+
+        assertEquals("Matcher mismatch", "app:drive:", matches);
+    }
+
+    @Test
+    public void testGetPathMatcherWithGlobStarDoesNotCrossSeparator() {
+        SafenetFileSystem safenetFileSystem = new SafenetFileSystem(mock(SafenetFileSystemProvider.class), URI.create("safe://localhost"),
+                SafenetMockFactory.makeSafenetFactoryMockWithGetDirectoryReturnsRootDirectories());
+
+        assertFalse("Single star matched across a separator", safenetFileSystem.getPathMatcher("glob:*.txt").matches(safenetFileSystem.getPath("/app/file.txt")));
+        assertTrue("Double star did not match across a separator", safenetFileSystem.getPathMatcher("glob:**.txt").matches(safenetFileSystem.getPath("/app/file.txt")));
+    }
+
     @Test
     public void testGetPathMatcherWithRegexMatch() {
         String matches = getPathMatcher("regex:a[p]+");
@@ -85,6 +103,11 @@ public class SafenetFileSystemTest {
         getPathMatcher("invalid:a*");
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetPathMatcherWithBadGlob() {
+        getPathMatcher("glob:[ap");
+    }
+
     private String getPathMatcher(String syntaxPattern) {
         SafenetFactory safenetFactory = SafenetMockFactory.makeSafenetFactoryMockWithGetDirectoryReturnsRootDirectories();
         SafenetFileSystemProvider provider = mock(SafenetFileSystemProvider.class);
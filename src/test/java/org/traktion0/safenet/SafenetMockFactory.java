@@ -9,6 +9,7 @@ import org.traktion0.safenet.client.commands.*;
 import javax.ws.rs.WebApplicationException;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.List;
@@ -138,6 +139,52 @@ public abstract class SafenetMockFactory {
         return safenetFactory;
     }
 
+    public static SafenetFactory makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(byte[] fileContent) {
+        return makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(fileContent, 0);
+    }
+
+    public static SafenetFactory makeSafenetFactoryMockWithGetFileReturnsRangeSuccess(byte[] fileContent, long delayMillis) {
+        SafenetFactory safenetFactory = makeBasicSafenetFactoryMock();
+
+        // Unlike the fixed stream mocks, honour the requested range so concurrent fetches stay independent
+        when(safenetFactory.makeGetFileCommand(anyString(), anyLong(), anyLong())).thenAnswer(invocation -> {
+            long offset = (Long) invocation.getArguments()[1];
+            long length = (Long) invocation.getArguments()[2];
+            int from = (int) Math.min(offset, fileContent.length);
+            int to = (int) Math.min(offset + length, fileContent.length);
+
+            SafenetFile safenetFile = new SafenetFile();
+            safenetFile.setInputStream(new ByteArrayInputStream(Arrays.copyOfRange(fileContent, from, to)));
+            safenetFile.setContentLength(fileContent.length);
+            safenetFile.setContentRange("bytes " + from + "-" + to + "/" + fileContent.length);
+            safenetFile.setAcceptRanges("bytes");
+            safenetFile.setContentType("text/plain");
+            safenetFile.setCreatedOn(OffsetDateTime.parse("2016-10-04T09:34:44.523Z"));
+            safenetFile.setLastModified(OffsetDateTime.parse("2016-10-05T10:24:24.123Z"));
+
+            GetFile getFile = mock(GetFile.class);
+            when(getFile.execute()).thenAnswer(executeInvocation -> {
+                Thread.sleep(delayMillis);
+                return safenetFile;
+            });
+            return getFile;
+        });
+
+        SafenetFile attributes = new SafenetFile();
+        attributes.setContentLength(fileContent.length);
+        attributes.setCreatedOn(OffsetDateTime.parse("2016-10-04T09:34:44.523Z"));
+        attributes.setLastModified(OffsetDateTime.parse("2016-10-05T10:24:24.123Z"));
+
+        GetFileAttributes getFileAttributes = mock(GetFileAttributes.class);
+        when(safenetFactory.makeGetFileAttributesCommand(anyString())).thenReturn(getFileAttributes);
+        when(getFileAttributes.execute()).thenAnswer(invocation -> {
+            Thread.sleep(delayMillis);
+            return attributes;
+        });
+
+        return safenetFactory;
+    }
+
     public static SafenetFactory makeSafenetFactoryMockWithGetFileReturnsImageSuccess() throws IOException {
         SafenetFactory safenetFactory = makeBasicSafenetFactoryMock();
 
@@ -177,7 +177,7 @@ public class SafenetPathTest {
     public void testStartsWithPathReturnsMatch() throws IOException {
         Path sourcePath = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testdir/testsubdir/testfile.txt"));
         Path compareShortPath = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testdir"));
-        Path compareLongPath = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testdir/testsubdir/test"));
+        Path compareLongPath = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testdir/testsubdir"));
         Path sourceRelativePath = new SafenetPath(fileSystem, URI.create("testdir/testsubdir/testfile.txt"));
         Path compareRelativePath = new SafenetPath(fileSystem, URI.create("testdir/testsubdir"));
 
@@ -198,6 +198,7 @@ public class SafenetPathTest {
         assertFalse("Starts with matches long path", sourcePath.startsWith(compareLongPath));
         assertFalse("Starts with matches relative path", sourcePath.startsWith(compareRelativePath));
         assertFalse("Starts with mismatches long path", sourceRelativePath.startsWith(compareShortPath));
+        assertFalse("Starts with matches part of a name", sourcePath.startsWith(new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "test"))));
     }
 
     @Test
@@ -206,7 +207,7 @@ public class SafenetPathTest {
         Path relativePath = new SafenetPath(fileSystem, URI.create("testdir/testsubdir/testfile.txt"));
 
         assertTrue("Starts with string mismatches short path", absolutePath.startsWith("/testdir"));
-        assertTrue("Starts with string mismatches long path", absolutePath.startsWith("/testdir/testsubdir/test"));
+        assertTrue("Starts with string mismatches long path", absolutePath.startsWith("/testdir/testsubdir/"));
         assertTrue("Starts with string mismatches relative paths", relativePath.startsWith("testdir/testsubdir"));
     }
 
@@ -217,16 +218,19 @@ public class SafenetPathTest {
 
         assertFalse("Starts with string matches relative path", absolutePath.startsWith("testdir/testsubdir"));
         assertFalse("Starts with matches relative and absolute paths", relativePath.startsWith("/testdir/testsubdir"));
+        assertFalse("Starts with string matches part of a name", absolutePath.startsWith("/testdir/testsubdir/test"));
+        assertFalse("Starts with string matches part of a name", new SafenetPath(fileSystem, URI.create("/ab")).startsWith("/a"));
     }
 
     @Test
     public void testEndsWithPathReturnsMatch() throws IOException {
         Path sourcePath = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testdir/testsubdir/testfile.txt"));
-        Path compareShortPath = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testfile.txt"));
+        Path compareShortPath = new SafenetPath(fileSystem, URI.create("testfile.txt"));
         Path sourceRelativePath = new SafenetPath(fileSystem, URI.create("testdir/testsubdir/testfile.txt"));
-        Path compareRelativePath = new SafenetPath(fileSystem, URI.create("dir/testsubdir/testfile.txt"));
+        Path compareRelativePath = new SafenetPath(fileSystem, URI.create("testsubdir/testfile.txt"));
 
         assertTrue("Ends with absolute mismatches short path", sourcePath.endsWith(compareShortPath));
+        assertTrue("Ends with absolute mismatches equal path", sourcePath.endsWith(new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testdir/testsubdir/testfile.txt"))));
         assertTrue("Ends with absolute mismatches relative path", sourcePath.endsWith(compareRelativePath));
         assertTrue("Ends with relative mismatches relative path", sourceRelativePath.endsWith(compareRelativePath));
     }
@@ -243,6 +247,8 @@ public class SafenetPathTest {
         assertFalse("Ends with matches long path", sourcePath.endsWith(compareLongPath));
         assertFalse("Ends with matches relative path", sourcePath.endsWith(compareRelativePath));
         assertFalse("Ends with mismatches long path", sourceRelativePath.endsWith(compareShortPath));
+        assertFalse("Ends with matches absolute last name", sourcePath.endsWith(new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testfile.txt"))));
+        assertFalse("Ends with matches part of a name", sourcePath.endsWith(new SafenetPath(fileSystem, URI.create("dir/testsubdir/testfile.txt"))));
     }
 
     @Test
@@ -251,7 +257,7 @@ public class SafenetPathTest {
         Path relativePath = new SafenetPath(fileSystem, URI.create("testdir/testsubdir/testfile.txt"));
 
         assertTrue("Ends with string mismatches short path", absolutePath.endsWith("testfile.txt"));
-        assertTrue("Ends with string mismatches long path", absolutePath.endsWith("dir/testsubdir/testfile.txt"));
+        assertTrue("Ends with string mismatches long path", absolutePath.endsWith("testdir/testsubdir/testfile.txt"));
         assertTrue("Ends with string mismatches relative paths", relativePath.endsWith("testsubdir/testfile.txt"));
     }
 
@@ -262,6 +268,7 @@ public class SafenetPathTest {
 
         assertFalse("Ends with string matches relative path", absolutePath.endsWith("testdir/testsubdir"));
         assertFalse("Ends with matches relative and absolute paths", relativePath.endsWith("/testdir/testsubdir"));
+        assertFalse("Ends with string matches part of a name", absolutePath.endsWith("file.txt"));
     }
 
     @Test
@@ -296,6 +303,28 @@ public class SafenetPathTest {
         assertEquals("Normalized path mismatches raw path", rawPath.toString(), normalizedPath.toString());
     }
 
+    @Test
+    public void testNormalizeKeepsNamesEndingWithDot() throws IOException {
+        Path normalizedPath = new SafenetPath(fileSystem, URI.create("/testdir./testsubdir/.")).normalize();
+
+        assertEquals("Normalized path mismatches raw path", "/testdir./testsubdir", normalizedPath.toString());
+    }
+
+    @Test
+    public void testNormalizeKeepsLeadingParentOfRelativePath() throws IOException {
+        Path normalizedPath = new SafenetPath(fileSystem, URI.create("../testdir/../../testsubdir/")).normalize();
+
+        assertEquals("Normalized path mismatches raw path", "../../testsubdir", normalizedPath.toString());
+    }
+
+    @Test
+    public void testRelativizeWithDivergingAbsolutePaths() {
+        Path basePath = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testdir/testsubdir/testfile.txt"));
+        Path extraPath = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testdir/testsubdir2/testfile.txt"));
+
+        assertEquals("Relativized path is invalid", "../../testsubdir2/testfile.txt", basePath.relativize(extraPath).toString());
+    }
+
     @Test
     public void testToAbsoluteWithAbsolutePath() throws IOException {
         Path absolutePath1 = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testsubdir/testfile.txt"));
@@ -320,6 +349,24 @@ public class SafenetPathTest {
         assertEquals("Absolute paths mismatch", 0, path1.compareTo(path2));
     }
 
+    @Test
+    public void testCompareToIgnoresRepeatedAndTrailingSeparators() throws IOException {
+        Path path1 = new SafenetPath(fileSystem, URI.create("/testsubdir//testfile.txt/"));
+        Path path2 = new SafenetPath(fileSystem, URI.create("/testsubdir/testfile.txt"));
+
+        assertEquals("Equal paths mismatch", path1, path2);
+        assertEquals("Equal paths do not compare as equal", 0, path1.compareTo(path2));
+    }
+
+    @Test
+    public void testCompareToOrdersByName() throws IOException {
+        Path path1 = new SafenetPath(fileSystem, URI.create("/a/b"));
+        Path path2 = new SafenetPath(fileSystem, URI.create("/a-b"));
+
+        assertTrue("Path with a shorter first name does not sort first", path1.compareTo(path2) < 0);
+        assertTrue("Path with a longer first name does not sort last", path2.compareTo(path1) > 0);
+    }
+
     @Test
     public void testCompareToWithMismatchingPathsLessThan() throws IOException {
         Path path1 = new SafenetPath(fileSystem, URI.create("/atestsubdir/testfile.txt"));
@@ -446,7 +493,8 @@ public class SafenetPathTest {
         Path basePath = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testdir/testsubdir/testsubdir2/testfile.txt"));
         Path extraPath = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testdir/testsubdir/"));
 
-        assertEquals("Relativized path is invalid", "testsubdir2/testfile.txt", basePath.relativize(extraPath).toString());
+        assertEquals("Relativized path is invalid", "../..", basePath.relativize(extraPath).toString());
+        assertEquals("Relativized path does not resolve back", extraPath, basePath.resolve(basePath.relativize(extraPath)));
     }
 
     @Test
@@ -476,4 +524,39 @@ public class SafenetPathTest {
 
         assertEquals("Filename has incorrect format", path1.getFileName().toString(), "testdir");
     }
+
+    @Test
+    public void testEqualsIgnoresRepeatedAndTrailingSeparators() {
+        Path path1 = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testdir//testsubdir/"));
+        Path path2 = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testdir/testsubdir"));
+
+        assertEquals("Paths with the same names are not equal", path1, path2);
+        assertEquals("Equal paths have different hash codes", path1.hashCode(), path2.hashCode());
+    }
+
+    @Test
+    public void testEqualsParentOfResolvedPath() {
+        Path path1 = new SafenetPath(fileSystem, URI.create(URI_HOST_STRING + "testdir/testsubdir"));
+        Path path2 = path1.resolve("testfile.txt").getParent();
+
+        assertEquals("Parent of resolved path is not equal to the original path", path1, path2);
+        assertFalse("Relative path is equal to absolute path", path1.equals(path1.subpath(0, 2)));
+    }
+
+    @Test
+    public void testPathInterningReturnsSharedInstances() throws IOException {
+        Map<String, Object> env = new HashMap<>();
+        env.put("SafenetFactory", SafenetMockFactory.makeBasicSafenetFactoryMock());
+        env.put("PathInterning", true);
+
+        try (FileSystem interningFileSystem = new SafenetFileSystemProvider().newFileSystem(URI.create(URI_HOST_STRING), env)) {
+            Path path1 = interningFileSystem.getPath("/testdir/testsubdir/testfile.txt");
+            Path path2 = interningFileSystem.getPath("/testdir").resolve("testsubdir/../testsubdir/testfile.txt");
+
+            assertTrue("Equal paths are not the same instance", path1 == path2);
+            assertTrue("Parent is not the same instance", path1.getParent() == interningFileSystem.getPath("/testdir", "testsubdir"));
+            assertEquals("Interned path has incorrect format", "/testdir/testsubdir/testfile.txt", path1.toString());
+            assertEquals("Non-normal path was changed", "/testdir//testsubdir/", interningFileSystem.getPath("/testdir//testsubdir/").toString());
+        }
+    }
 }